@@ -0,0 +1,56 @@
+package com.coremedia.csv.common;
+
+/**
+ * Options of a single column of a CSV template, configured in the "csvColumnOptions" struct of the template.
+ */
+public class CSVColumnOptions {
+
+  /**
+   * Value of {@link #getMaxLength()} if the length of the column is not limited.
+   */
+  public static final int UNLIMITED = -1;
+
+  /**
+   * Options of columns which have no options configured.
+   */
+  public static final CSVColumnOptions DEFAULT = new CSVColumnOptions(false, UNLIMITED);
+
+  /**
+   * Whether to write only the text of markup values.
+   */
+  private final boolean plainText;
+
+  /**
+   * The maximum number of characters of a value.
+   */
+  private final int maxLength;
+
+  /**
+   * Constructor.
+   *
+   * @param plainText whether to write only the text of markup values
+   * @param maxLength the maximum number of characters of a value, or {@link #UNLIMITED}
+   */
+  public CSVColumnOptions(boolean plainText, int maxLength) {
+    this.plainText = plainText;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * Whether to write only the text nodes of markup and struct values, instead of the XML.
+   *
+   * @return true if only the text of markup values is written
+   */
+  public boolean isPlainText() {
+    return plainText;
+  }
+
+  /**
+   * Gets the maximum number of characters of markup and struct values. Longer values are truncated.
+   *
+   * @return the maximum number of characters, or {@link #UNLIMITED}
+   */
+  public int getMaxLength() {
+    return maxLength;
+  }
+}
@@ -2,14 +2,24 @@ package com.coremedia.csv.common;
 
 import com.coremedia.cap.content.Content;
 import com.coremedia.cap.content.ContentRepository;
+import com.coremedia.cap.content.events.ContentEvent;
+import com.coremedia.cap.content.events.ContentRepositoryListenerBase;
 import com.coremedia.cap.struct.Struct;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Required;
 
+import java.time.ZoneId;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class CSVConfig {
+/**
+ * Provides the CSV templates configured in the reporting settings. The settings are parsed into immutable
+ * {@link CSVTemplate templates}, which are kept until the reporting settings document changes.
+ */
+public class CSVConfig implements InitializingBean, DisposableBean {
 
 
   /**
@@ -37,6 +47,31 @@ public class CSVConfig {
    */
   private static final String PROPERTIES_STRUCT_NAME = "csvProperties";
 
+  /**
+   * Settings property that stores the date pattern for CSV reporting
+   */
+  private static final String DATE_FORMAT_PROPERTY = "dateFormat";
+
+  /**
+   * Settings property that stores the time zone id for CSV reporting
+   */
+  private static final String TIME_ZONE_PROPERTY = "timeZone";
+
+  /**
+   * Settings property that stores the column options for CSV reporting
+   */
+  private static final String COLUMN_OPTIONS_STRUCT_NAME = "csvColumnOptions";
+
+  /**
+   * Column option to write only the text of markup values
+   */
+  private static final String PLAIN_TEXT_OPTION = "plainText";
+
+  /**
+   * Column option that limits the length of markup values
+   */
+  private static final String MAX_LENGTH_OPTION = "maxLength";
+
   /**
    * The content repository from which to retrieve content.
    */
@@ -47,6 +82,63 @@ public class CSVConfig {
    */
   private String settingsPath;
 
+  /**
+   * The name of the reporting settings document
+   */
+  private String settingsName;
+
+  /**
+   * The ID of the reporting settings document, as of the last parsing of the templates.
+   */
+  private volatile String settingsId;
+
+  /**
+   * The parsed templates of the current reporting settings, or null if they have to be rebuilt.
+   */
+  private volatile TemplateRegistry templateRegistry;
+
+  /**
+   * Incremented on every change of the reporting settings, so that a registry built concurrently with a change is not
+   * kept. Guarded by this.
+   */
+  private long generation;
+
+  /**
+   * Listener which discards the registry when the reporting settings document changes.
+   */
+  private final ContentRepositoryListenerBase invalidationListener = new ContentRepositoryListenerBase() {
+    @Override
+    protected void handleContentEvent(ContentEvent event) {
+      // also checked by name, the settings document might have been created, moved or renamed to its path
+      Content content = event.getContent();
+      if (content != null && (content.getId().equals(settingsId) || settingsName.equals(content.getName()))) {
+        invalidate();
+      }
+    }
+  };
+
+  @Override
+  public void afterPropertiesSet() {
+    contentRepository.addContentRepositoryListener(invalidationListener);
+  }
+
+  @Override
+  public void destroy() {
+    contentRepository.removeContentRepositoryListener(invalidationListener);
+  }
+
+  /**
+   * Gets the parsed template. The templates are parsed once and then shared until the reporting settings change.
+   *
+   * @param templateName the name of the template
+   * @return the template
+   * @throws CSVTemplateNotFoundException if no template of that name is configured
+   * @throws IllegalArgumentException     if the configured date pattern or time zone of the template is invalid
+   */
+  public CSVTemplate getTemplate(String templateName) {
+    return getTemplateRegistry().getTemplate(templateName);
+  }
+
   /**
    * Get the header columns in the CSV. Used by the CSV writer to determine which properties of beans are needed when
    * writing.
@@ -54,12 +146,7 @@ public class CSVConfig {
    * @return the header columns in the CSV
    */
   public String[] getCSVHeaders(String templateName) {
-    Struct settingsStruct = getReportingSettings(templateName);
-    if(settingsStruct != null) {
-      List<String> headers = settingsStruct.getStrings(HEADERS_LIST_NAME);
-      return headers.toArray(new String[0]);
-    }
-    return new String[0];
+    return getTemplate(templateName).getHeaders().toArray(new String[0]);
   }
 
   /**
@@ -68,30 +155,107 @@ public class CSVConfig {
    * @return a map of CSV headers and their corresponding content property names
    */
   public Map<String, String> getReportHeadersToContentProperties(String templateName) {
-    Map<String, String> stringsMap = new HashMap<>();
-    Struct settingsStruct = getReportingSettings(templateName);
-    if(settingsStruct != null) {
-      Struct propertiesStruct = settingsStruct.getStruct(PROPERTIES_STRUCT_NAME);
-      if (propertiesStruct != null) {
-        Map<String, Object> propertiesMap = propertiesStruct.toNestedMaps();
-        for (String k : propertiesMap.keySet()) {
-          stringsMap.put(k, propertiesMap.get(k).toString());
+    return getTemplate(templateName).getHeadersToContentProperties();
+  }
+
+  /**
+   * Get the options of the columns in the CSV, by header. Columns without options are not contained.
+   *
+   * @return a map of CSV headers and the options of their columns
+   */
+  public Map<String, CSVColumnOptions> getColumnOptions(String templateName) {
+    return getTemplate(templateName).getColumnOptions();
+  }
+
+  /**
+   * Get the formatter for the dates in the CSV. The pattern and time zone can be configured per template, otherwise
+   * the {@link CSVDateFormatter#getDefault() default formatter} is used.
+   *
+   * @return the formatter for the dates in the CSV
+   * @throws IllegalArgumentException if the configured pattern or time zone is invalid
+   */
+  public CSVDateFormatter getDateFormatter(String templateName) {
+    return getTemplate(templateName).getDateFormatter();
+  }
+
+  /**
+   * Discards the parsed templates, they are parsed again on the next access.
+   */
+  public void invalidate() {
+    synchronized (this) {
+      generation++;
+      templateRegistry = null;
+    }
+  }
+
+  private TemplateRegistry getTemplateRegistry() {
+    TemplateRegistry registry = templateRegistry;
+    if (registry != null) {
+      return registry;
+    }
+    long buildGeneration;
+    synchronized (this) {
+      buildGeneration = generation;
+    }
+    Content settingsDoc = contentRepository.getChild(settingsPath);
+    settingsId = settingsDoc != null ? settingsDoc.getId() : null;
+    registry = new TemplateRegistry(settingsDoc);
+    synchronized (this) {
+      if (buildGeneration == generation) {
+        templateRegistry = registry;
+      }
+    }
+    return registry;
+  }
+
+  /**
+   * Parses a template from its settings struct.
+   */
+  private static CSVTemplate parseTemplate(String templateName, Struct settingsStruct) {
+    List<String> headers = settingsStruct.getStrings(HEADERS_LIST_NAME);
+
+    Map<String, String> headersToContentProperties = new HashMap<>();
+    Struct propertiesStruct = settingsStruct.getStruct(PROPERTIES_STRUCT_NAME);
+    if (propertiesStruct != null) {
+      Map<String, Object> propertiesMap = propertiesStruct.toNestedMaps();
+      for (String k : propertiesMap.keySet()) {
+        headersToContentProperties.put(k, propertiesMap.get(k).toString());
+      }
+    }
+
+    Map<String, CSVColumnOptions> columnOptions = new HashMap<>();
+    if (hasProperty(settingsStruct, COLUMN_OPTIONS_STRUCT_NAME)) {
+      Struct optionsStruct = settingsStruct.getStruct(COLUMN_OPTIONS_STRUCT_NAME);
+      for (Map.Entry<String, Object> entry : optionsStruct.getProperties().entrySet()) {
+        if (entry.getValue() instanceof Struct) {
+          Struct options = (Struct) entry.getValue();
+          Object plainText = hasProperty(options, PLAIN_TEXT_OPTION) ? options.get(PLAIN_TEXT_OPTION) : null;
+          Object maxLength = hasProperty(options, MAX_LENGTH_OPTION) ? options.get(MAX_LENGTH_OPTION) : null;
+          columnOptions.put(entry.getKey(), new CSVColumnOptions(
+                  Boolean.TRUE.equals(plainText),
+                  maxLength instanceof Integer ? (Integer) maxLength : CSVColumnOptions.UNLIMITED));
         }
       }
     }
-    return stringsMap;
+
+    CSVDateFormatter dateFormatter = CSVDateFormatter.getDefault();
+    Object pattern = hasProperty(settingsStruct, DATE_FORMAT_PROPERTY) ? settingsStruct.get(DATE_FORMAT_PROPERTY) : null;
+    Object timeZone = hasProperty(settingsStruct, TIME_ZONE_PROPERTY) ? settingsStruct.get(TIME_ZONE_PROPERTY) : null;
+    if (pattern != null || timeZone != null) {
+      dateFormatter = CSVDateFormatter.of(
+              pattern != null ? pattern.toString() : dateFormatter.getPattern(),
+              timeZone != null ? ZoneId.of(timeZone.toString()) : dateFormatter.getZone());
+    }
+
+    return new CSVTemplate(templateName, headers, headersToContentProperties, columnOptions, dateFormatter);
   }
 
   /**
-   * Gets the reporting settings object.
-   *
-   * @return the reporting settings object
+   * Checks whether a struct has a property. Reading a missing property of a struct fails, optional settings are
+   * checked first.
    */
-  private Struct getReportingSettings(String templateName) {
-    Content settingsDoc = contentRepository.getChild(settingsPath);
-    Struct settings = settingsDoc.getStruct(SETTINGS_PROPERTY);
-    Struct templates = settings.getStruct(TEMPLATES_PROPERTY);
-    return templates.getStruct(templateName);
+  private static boolean hasProperty(Struct struct, String propertyName) {
+    return struct.getType().getDescriptor(propertyName) != null;
   }
 
   /**
@@ -112,5 +276,42 @@ public class CSVConfig {
   @Required
   public void setSettingsPath(String settingsPath) {
     this.settingsPath = settingsPath;
+    this.settingsName = settingsPath.substring(settingsPath.lastIndexOf('/') + 1);
+  }
+
+  /**
+   * The templates of one version of the reporting settings. Templates are parsed on first use, so that an invalid
+   * template only fails the exports and imports using it.
+   */
+  private static final class TemplateRegistry {
+
+    /**
+     * The templates struct of the reporting settings, or null if there is none.
+     */
+    private final Struct templates;
+
+    /**
+     * The parsed templates by name.
+     */
+    private final Map<String, CSVTemplate> parsedTemplates = new ConcurrentHashMap<>();
+
+    private TemplateRegistry(Content settingsDoc) {
+      Struct settings = settingsDoc != null ? settingsDoc.getStruct(SETTINGS_PROPERTY) : null;
+      templates = settings != null && hasProperty(settings, TEMPLATES_PROPERTY)
+              ? settings.getStruct(TEMPLATES_PROPERTY) : null;
+    }
+
+    private CSVTemplate getTemplate(String templateName) {
+      CSVTemplate template = parsedTemplates.get(templateName);
+      if (template == null) {
+        if (templates == null || templateName == null || !hasProperty(templates, templateName)) {
+          // unknown names are not remembered, they might be arbitrary request parameters
+          throw new CSVTemplateNotFoundException(templateName);
+        }
+        template = parsedTemplates.computeIfAbsent(templateName,
+                name -> parseTemplate(name, templates.getStruct(name)));
+      }
+      return template;
+    }
   }
 }
@@ -0,0 +1,159 @@
+package com.coremedia.csv.common;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable, thread-safe formatter for the dates of CSV exports and imports. Instances are cached per pattern and time
+ * zone, so they can be looked up for every export or import without creating new formatters.
+ */
+public final class CSVDateFormatter {
+
+  /**
+   * The general date pattern the reporting tool will use when converting dates into Strings.
+   */
+  public static final String DEFAULT_PATTERN = "MM-dd-yyyy HH:mm:ss";
+
+  /**
+   * The formatters created so far, by pattern and time zone.
+   */
+  private static final ConcurrentMap<String, CSVDateFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+  /**
+   * The date pattern.
+   */
+  private final String pattern;
+
+  /**
+   * The time zone in which dates are formatted and parsed.
+   */
+  private final ZoneId zone;
+
+  /**
+   * The formatter of the pattern, bound to the time zone.
+   */
+  private final DateTimeFormatter formatter;
+
+  /**
+   * Constructor.
+   *
+   * @param pattern the date pattern
+   * @param zone    the time zone in which dates are formatted and parsed
+   */
+  private CSVDateFormatter(String pattern, ZoneId zone) {
+    this.pattern = pattern;
+    this.zone = zone;
+    this.formatter = DateTimeFormatter.ofPattern(pattern).withZone(zone);
+  }
+
+  /**
+   * Gets the formatter of the default pattern in the default time zone of the JVM.
+   *
+   * @return the default formatter
+   */
+  public static CSVDateFormatter getDefault() {
+    return of(DEFAULT_PATTERN, ZoneId.systemDefault());
+  }
+
+  /**
+   * Gets the formatter of a date pattern and time zone.
+   *
+   * @param pattern the date pattern, as understood by {@link DateTimeFormatter#ofPattern(String)}
+   * @param zone    the time zone in which dates are formatted and parsed
+   * @return the formatter
+   * @throws IllegalArgumentException if the pattern is invalid
+   */
+  public static CSVDateFormatter of(String pattern, ZoneId zone) {
+    Objects.requireNonNull(pattern, "pattern");
+    Objects.requireNonNull(zone, "zone");
+    return FORMATTERS.computeIfAbsent(pattern + '\u0000' + zone.getId(), key -> new CSVDateFormatter(pattern, zone));
+  }
+
+  /**
+   * Formats a date.
+   *
+   * @param date the date to format
+   * @return the formatted date, or an empty String if the date is null
+   */
+  public String format(Calendar date) {
+    return date != null ? formatter.format(date.toInstant()) : "";
+  }
+
+  /**
+   * Formats an instant.
+   *
+   * @param instant the instant to format
+   * @return the formatted instant
+   */
+  public String format(Instant instant) {
+    return formatter.format(instant);
+  }
+
+  /**
+   * Formats a date directly into a buffer, without creating an intermediate String. Nothing is appended if the date
+   * is null.
+   *
+   * @param date   the date to format
+   * @param buffer the buffer to append the formatted date to
+   */
+  public void formatTo(Calendar date, StringBuilder buffer) {
+    if (date != null) {
+      formatter.formatTo(date.toInstant(), buffer);
+    }
+  }
+
+  /**
+   * Parses a date. Dates without a time zone are interpreted in the time zone of this formatter, dates without a time
+   * at the start of the day.
+   *
+   * @param text the text to parse
+   * @return the parsed date
+   * @throws DateTimeParseException if the text cannot be parsed
+   */
+  public Calendar parse(String text) {
+    TemporalAccessor parsed = formatter.parseBest(text, ZonedDateTime::from, LocalDateTime::from, LocalDate::from);
+    ZonedDateTime dateTime;
+    if (parsed instanceof ZonedDateTime) {
+      dateTime = (ZonedDateTime) parsed;
+    } else if (parsed instanceof LocalDateTime) {
+      dateTime = ((LocalDateTime) parsed).atZone(zone);
+    } else {
+      dateTime = ((LocalDate) parsed).atStartOfDay(zone);
+    }
+    return GregorianCalendar.from(dateTime);
+  }
+
+  /**
+   * Gets the date pattern.
+   *
+   * @return the date pattern
+   */
+  public String getPattern() {
+    return pattern;
+  }
+
+  /**
+   * Gets the time zone in which dates are formatted and parsed.
+   *
+   * @return the time zone
+   */
+  public ZoneId getZone() {
+    return zone;
+  }
+
+  @Override
+  public String toString() {
+    return "CSVDateFormatter[" + pattern + ", " + zone + "]";
+  }
+}
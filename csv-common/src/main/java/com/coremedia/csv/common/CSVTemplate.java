@@ -0,0 +1,107 @@
+package com.coremedia.csv.common;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A CSV template parsed from the reporting settings. Templates are immutable, a change of the reporting settings
+ * replaces them, so they can be shared by concurrent exports and imports and used as keys of derived caches.
+ */
+public class CSVTemplate {
+
+  /**
+   * The name of the template.
+   */
+  private final String name;
+
+  /**
+   * The header columns in the CSV.
+   */
+  private final List<String> headers;
+
+  /**
+   * The content property names by CSV header.
+   */
+  private final Map<String, String> headersToContentProperties;
+
+  /**
+   * The options of the columns by CSV header.
+   */
+  private final Map<String, CSVColumnOptions> columnOptions;
+
+  /**
+   * The formatter for the dates in the CSV.
+   */
+  private final CSVDateFormatter dateFormatter;
+
+  /**
+   * Constructor.
+   *
+   * @param name                       the name of the template
+   * @param headers                    the header columns in the CSV
+   * @param headersToContentProperties the content property names by CSV header
+   * @param columnOptions              the options of the columns by CSV header
+   * @param dateFormatter              the formatter for the dates in the CSV
+   */
+  public CSVTemplate(String name, List<String> headers, Map<String, String> headersToContentProperties,
+                     Map<String, CSVColumnOptions> columnOptions, CSVDateFormatter dateFormatter) {
+    this.name = name;
+    this.headers = List.copyOf(headers);
+    this.headersToContentProperties = Map.copyOf(headersToContentProperties);
+    this.columnOptions = Map.copyOf(columnOptions);
+    this.dateFormatter = dateFormatter;
+  }
+
+  /**
+   * Gets the name of the template.
+   *
+   * @return the name of the template, or null if the template is not configured
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the header columns in the CSV.
+   *
+   * @return the unmodifiable list of header columns
+   */
+  public List<String> getHeaders() {
+    return headers;
+  }
+
+  /**
+   * Gets the names of the content properties by CSV header.
+   *
+   * @return the unmodifiable map of CSV headers and their corresponding content property names
+   */
+  public Map<String, String> getHeadersToContentProperties() {
+    return headersToContentProperties;
+  }
+
+  /**
+   * Gets the options of the columns by CSV header. Columns without options are not contained.
+   *
+   * @return the unmodifiable map of CSV headers and the options of their columns
+   */
+  public Map<String, CSVColumnOptions> getColumnOptions() {
+    return columnOptions;
+  }
+
+  /**
+   * Gets the formatter for the dates in the CSV.
+   *
+   * @return the formatter for the dates in the CSV
+   */
+  public CSVDateFormatter getDateFormatter() {
+    return dateFormatter;
+  }
+
+  @Override
+  public String toString() {
+    return "CSVTemplate{" +
+            "name='" + name + '\'' +
+            ", headers=" + headers +
+            '}';
+  }
+}
@@ -0,0 +1,31 @@
+package com.coremedia.csv.common;
+
+/**
+ * Thrown if a template is requested which is not configured in the reporting settings.
+ */
+public class CSVTemplateNotFoundException extends RuntimeException {
+
+  /**
+   * The name of the requested template.
+   */
+  private final String templateName;
+
+  /**
+   * Constructor.
+   *
+   * @param templateName the name of the requested template
+   */
+  public CSVTemplateNotFoundException(String templateName) {
+    super("No CSV template '" + templateName + "' is configured in the reporting settings");
+    this.templateName = templateName;
+  }
+
+  /**
+   * Gets the name of the requested template.
+   *
+   * @return the name of the template
+   */
+  public String getTemplateName() {
+    return templateName;
+  }
+}
@@ -5,6 +5,8 @@ import com.coremedia.cap.user.Group;
 import com.coremedia.cap.user.User;
 import com.coremedia.cap.user.UserRepository;
 import com.coremedia.csv.common.CSVConfig;
+import com.coremedia.csv.common.CSVTemplate;
+import com.coremedia.csv.common.CSVTemplateNotFoundException;
 import com.coremedia.csv.importer.CSVParserHelper;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -107,10 +109,18 @@ public class CSVImportResource {
 
     boolean autoPublish = false;
     String template = "default";
+    CSVTemplate csvTemplate;
+    try {
+      csvTemplate = csvConfig.getTemplate(template);
+    } catch (CSVTemplateNotFoundException e) {
+      logger.error(e.getMessage());
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+    }
     BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream()));
     CSVParser parser = new CSVParser(reader, CSVFormat.EXCEL.withHeader());
     CSVParserHelper handler = new CSVParserHelper(autoPublish, contentRepository, logger);
-    handler.parseCSV(parser, csvConfig.getReportHeadersToContentProperties(template));
+    handler.setDateFormatter(csvTemplate.getDateFormatter());
+    handler.parseCSV(parser, csvTemplate.getHeadersToContentProperties());
 
     return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(handler.getFirstContent());
   }
@@ -0,0 +1,171 @@
+package com.coremedia.csv.importer;
+
+import com.coremedia.cap.common.CapSession;
+import com.coremedia.cap.content.Version;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Background stage which approves and publishes the contents checked in by an import, so that the import continues
+ * with the next records meanwhile. The checked-in chunks are published in the order of their submission by a single
+ * thread, with the session of the importing user. The queue of chunks is bounded: if publication falls behind, the
+ * import blocks until a chunk is done.
+ */
+public class AsyncPublicationStage implements AutoCloseable {
+
+    /**
+     * Task which stops the stage once its queue is drained.
+     */
+    private static final Runnable STOP = () -> {
+    };
+
+    private final CSVContentHelper contentHelper;
+
+    /**
+     * The session of the importing user, in which the contents are approved and published.
+     */
+    private final CapSession session;
+
+    private final Logger logger;
+
+    /**
+     * The chunks waiting for publication.
+     */
+    private final BlockingQueue<Runnable> queue;
+
+    private final Thread thread;
+
+    /**
+     * The number of submitted chunks which have not been published yet. Guarded by this.
+     */
+    private int pending;
+
+    /**
+     * Constructor. Starts the stage.
+     *
+     * @param contentHelper the helper which approves and publishes the checked-in contents
+     * @param session       the session of the importing user
+     * @param queueCapacity the maximum number of chunks waiting for publication
+     * @param logger        logger from the tool using this stage
+     */
+    public AsyncPublicationStage(CSVContentHelper contentHelper, CapSession session, int queueCapacity,
+                                 Logger logger) {
+        this.contentHelper = contentHelper;
+        this.session = session;
+        this.logger = logger;
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        thread = new Thread(this::work, "csv-publish");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Submits a chunk of checked-in contents for approval and publication. Blocks while the queue is full.
+     *
+     * @param publication the checked-in versions to approve and publish
+     */
+    public void submit(ContentPublishHelper.PendingPublication publication) {
+        if (publication.size() == 0) {
+            return;
+        }
+        synchronized (this) {
+            pending++;
+        }
+        Runnable task = new PublicationTask(publication);
+        try {
+            if (!queue.offer(task)) {
+                logger.info("Publication is behind the import, waiting for the publication of a previous chunk");
+                queue.put(task);
+            }
+        } catch (InterruptedException e) {
+            completed();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while submitting contents for publication", e);
+        }
+    }
+
+    /**
+     * Waits until all submitted chunks have been approved and published, e.g. at the end of an import.
+     */
+    public synchronized void awaitIdle() {
+        try {
+            while (pending > 0) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the publication of the imported contents", e);
+        }
+    }
+
+    /**
+     * Stops the stage. Chunks which have not been started yet are discarded and their contents are logged, so the
+     * stage should be awaited first unless the import is aborted.
+     */
+    @Override
+    public void close() {
+        List<Runnable> discarded = new ArrayList<>();
+        queue.drainTo(discarded);
+        queue.offer(STOP);
+        for (Runnable task : discarded) {
+            if (task instanceof PublicationTask) {
+                List<String> contentIds = new ArrayList<>();
+                for (Version version : ((PublicationTask) task).publication.getVersions()) {
+                    contentIds.add(version.getContainingContent().getId());
+                }
+                logger.warn("Import aborted, {} checked-in documents have not been approved or published: {}",
+                        contentIds.size(), contentIds);
+            }
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        // approvals and publications are made with the rights, and in the name, of the importing user
+        session.activate();
+        try {
+            Runnable task;
+            while ((task = queue.take()) != STOP) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // the contents stay checked in, a failed publication must not abort the import
+                    logger.error("Could not publish documents ", e);
+                } finally {
+                    completed();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Approves and publishes a chunk of checked-in contents.
+     */
+    private class PublicationTask implements Runnable {
+        private final ContentPublishHelper.PendingPublication publication;
+
+        private PublicationTask(ContentPublishHelper.PendingPublication publication) {
+            this.publication = publication;
+        }
+
+        @Override
+        public void run() {
+            contentHelper.approveAndPublish(publication);
+        }
+    }
+
+    private synchronized void completed() {
+        pending--;
+        notifyAll();
+    }
+}
@@ -0,0 +1,222 @@
+package com.coremedia.csv.importer;
+
+import com.coremedia.cap.content.Content;
+import com.coremedia.cap.content.ContentException;
+import com.coremedia.cap.content.ContentRepository;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * Writes the properties of imported contents with a {@link com.coremedia.cap.undoc.content.ContentRepository.Batch
+ * batch}, so that the check-outs and property updates of many records take one round-trip. If a batch fails, its
+ * contents are written one by one, so that only the failing records are reported and skipped.
+ * <p>
+ * The batch size adapts to the observed latency: it grows by {@link #BATCH_SIZE_INCREMENT} while batches complete
+ * within the target latency, and is halved when a batch is slower or fails.
+ * <p>
+ * A writer is not thread-safe, each import thread uses a writer of its own.
+ */
+public class BatchedContentWriter {
+
+    /**
+     * The initial number of contents written with a batch.
+     */
+    static final int INITIAL_BATCH_SIZE = 20;
+
+    /**
+     * The maximum number of contents written with a batch.
+     */
+    static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * The number of contents by which the batch size grows after a fast batch.
+     */
+    static final int BATCH_SIZE_INCREMENT = 10;
+
+    private final ContentRepository contentRepository;
+
+    /**
+     * Writes a single content synchronously, reporting any failure. Used if a batch fails.
+     */
+    private final BiPredicate<Content, Map<String, Object>> singleWriter;
+
+    /**
+     * The latency within which a batch should complete.
+     */
+    private final long targetLatencyMillis;
+
+    private final Logger logger;
+
+    /**
+     * The writes of the current batch.
+     */
+    private final List<Write> writes = new ArrayList<>();
+
+    /**
+     * The contents of the current batch.
+     */
+    private final Set<Content> batchContents = new HashSet<>();
+
+    private int batchSize = INITIAL_BATCH_SIZE;
+
+    /**
+     * Constructor.
+     *
+     * @param contentRepository   the content repository, which must support batches
+     * @param singleWriter        writes a single content synchronously and reports any failure, returns whether the
+     *                            content has been written
+     * @param targetLatencyMillis the latency within which a batch should complete
+     * @param logger              logger from the tool using this writer
+     */
+    public BatchedContentWriter(ContentRepository contentRepository,
+                                BiPredicate<Content, Map<String, Object>> singleWriter,
+                                long targetLatencyMillis, Logger logger) {
+        this.contentRepository = contentRepository;
+        this.singleWriter = singleWriter;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * Adds the properties of a content to the current batch. The batch is executed when it is full, or when the same
+     * content is written again.
+     *
+     * @param content    the content to update
+     * @param properties the properties to set
+     * @param callback   called with whether the content has been written, once the batch has been executed
+     */
+    public void write(Content content, Map<String, Object> properties, Consumer<Boolean> callback) {
+        if (batchContents.contains(content)) {
+            // a content is checked out only once per batch, so its writes keep their order
+            flush();
+        }
+        writes.add(new Write(content, properties, callback));
+        batchContents.add(content);
+        if (writes.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Executes the current batch if it contains a write to a content, so that the content can be read with the
+     * properties written before, e.g. before the next record of the content is compared with its current state.
+     *
+     * @param content the content
+     */
+    public void flushIfPending(Content content) {
+        if (batchContents.contains(content)) {
+            flush();
+        }
+    }
+
+    /**
+     * Executes the current batch.
+     */
+    public void flush() {
+        if (writes.isEmpty()) {
+            return;
+        }
+        List<Write> batchWrites = new ArrayList<>(writes);
+        writes.clear();
+        batchContents.clear();
+
+        com.coremedia.cap.undoc.content.ContentRepository undocRepository =
+                (com.coremedia.cap.undoc.content.ContentRepository) contentRepository;
+        com.coremedia.cap.undoc.content.ContentRepository.Batch batch = undocRepository.createBatch();
+        List<Write> singleWrites = new ArrayList<>();
+        List<Write> batchedWrites = new ArrayList<>();
+        for (Write write : batchWrites) {
+            if (write.content.isDestroyed() || write.content.isCheckedOut() && !write.content.isCheckedOutByCurrentSession()) {
+                // written one by one, so that the failure is reported for the record
+                singleWrites.add(write);
+            } else {
+                write.checkedOutByBatch = write.content.isCheckedIn();
+                if (write.checkedOutByBatch) {
+                    batch.checkOut(write.content);
+                }
+                batch.setProperties(write.content, write.properties);
+                batchedWrites.add(write);
+            }
+        }
+
+        if (!batchedWrites.isEmpty()) {
+            long start = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                batch.executeBatch();
+                success = true;
+            } catch (RuntimeException e) {
+                logger.warn("Failed to write a batch of {} contents, writing them one by one: {}", batchedWrites.size(),
+                        e.getMessage());
+            }
+            long latency = System.currentTimeMillis() - start;
+            adjustBatchSize(success, latency);
+            logger.debug("Wrote a batch of {} contents in {}ms, next batch size {}", batchedWrites.size(), latency,
+                    batchSize);
+            if (success) {
+                for (Write write : batchedWrites) {
+                    write.callback.accept(true);
+                }
+            } else {
+                singleWrites.addAll(batchedWrites);
+            }
+        }
+
+        for (Write write : singleWrites) {
+            write.callback.accept(writeSingle(write));
+        }
+    }
+
+    /**
+     * Gets the current batch size.
+     *
+     * @return the number of contents written with the next batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    private boolean writeSingle(Write write) {
+        boolean written = singleWriter.test(write.content, write.properties);
+        if (!written && write.checkedOutByBatch && write.content.isCheckedOutByCurrentSession()) {
+            // undo the check-out of the failed batch
+            try {
+                write.content.revert();
+            } catch (ContentException e) {
+                logger.error("Can't revert the check-out of content {} after a failed batch", write.content.getId());
+            }
+        }
+        return written;
+    }
+
+    private void adjustBatchSize(boolean success, long latencyMillis) {
+        if (success && latencyMillis <= targetLatencyMillis) {
+            batchSize = Math.min(MAX_BATCH_SIZE, batchSize + BATCH_SIZE_INCREMENT);
+        } else {
+            batchSize = Math.max(1, batchSize / 2);
+        }
+    }
+
+    /**
+     * The pending update of a content.
+     */
+    private static class Write {
+        private final Content content;
+        private final Map<String, Object> properties;
+        private final Consumer<Boolean> callback;
+        private boolean checkedOutByBatch;
+
+        private Write(Content content, Map<String, Object> properties, Consumer<Boolean> callback) {
+            this.content = content;
+            this.properties = properties;
+            this.callback = callback;
+        }
+    }
+}
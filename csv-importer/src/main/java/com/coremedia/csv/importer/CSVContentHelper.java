@@ -63,84 +63,29 @@ public class CSVContentHelper {
     }
 
     /**
-     * Establishes whether a taxonomy in a specified tag hierarchy exists within the content
+     * Checks in the updated content and determines which of it is to be approved/published, depending on the previous
+     * state. The collection will be cleared afterwards.
      *
-     * @param taxonomyPath the path hierarchy of the desired taxonomy tag. Must be in the form of "/taxonomy/path/1/"
-     * @param taxonomyRoot the root folder which holds the entire taxonomy hierarchy
-     * @return the taxonomy specified in the path hierarchy. If no such taxonomy exists, returns null
+     * @param importedContents The list to handle
+     * @return The checked-in versions to approve and publish with {@link #approveAndPublish}
      */
-    public Content establishTax(String taxonomyPath, Content taxonomyRoot) {
-        Content content = null;
-        if (taxonomyPath != null && !taxonomyPath.isEmpty() && !taxonomyPath.equals("[]")) {
-            List<String> taxonomyList = new ArrayList<>(Arrays.asList(taxonomyPath.split("/")));
-            // clear out any empty entries that may exist from splitting the path
-            taxonomyList.removeAll(Arrays.asList("", null, " "));
-
-            // We query for our first taxonomy member in the hierarchy. In order for a tag to be a direct hierarchical
-            // child of the root tag (i.e. Subjects), it must exist within the direct children (and not in a subfolder)
-            // of that tag's respective folder
-            Set<Content> children = taxonomyRoot.getChildren();
-            for (Content taxonomyChild : children) {
-                // We've hit our final taxonomy content - we know we've found it, or that it doesn't exist
-                if (taxonomyList.isEmpty()) {
-                    break;
-                }
-                else if (taxonomyChild.getName().equals(taxonomyList.get(0))) {
-                    // Once we have our first tag we can pop that off the list and search in that tag's properties for
-                    // the rest of the hierarchy
-                    taxonomyList.remove(0);
-                    content = getChildTaxonomy(taxonomyList, taxonomyChild);
-                }
-            }
+    public ContentPublishHelper.PendingPublication checkInImportedContents(Collection<Content> importedContents) {
+        if (importedContents.isEmpty()) {
+            return new ContentPublishHelper.PendingPublication();
         }
-        return content;
+        ContentPublishHelper.PendingPublication publication =
+                contentPublishHelper.checkIn(importedContents, autoPublish);
+        importedContents.clear();
+        return publication;
     }
 
     /**
-     * Takes the list of taxonomy names, order by heirarcharical relationship and the parent taxonomy for the path, and
-     * finds the child tag at the end of the path.
+     * Approves and/or publishes the checked-in versions of updated content.
      *
-     * @param taxonomyList the list of the hierarchy, excluding the parent taxonomy
-     * @param taxonomyRoot the parent taxonomy of the hierarchy
-     * @return the taxonomy content object for the given taxonomy path of the tag parent. If not such tag exists,
-     * returns null.
+     * @param publication The checked-in versions to approve and publish
      */
-    private Content getChildTaxonomy(List<String> taxonomyList, Content taxonomyRoot) {
-
-        // Loop until we've hit the end of the hierarchy list
-        int counter = 0;
-        while (counter != taxonomyList.size() && taxonomyRoot != null) {
-
-            // Gets the property "children" as opposed to getChildren(). 2 very different things...
-            List<Content> children = (List<Content>) taxonomyRoot.get("children");
-            for (Content childTaxonomy : children) {
-
-                // reset the taxonomy root to null - in case the child of the next tag in the path does not exist
-                taxonomyRoot = null;
-
-                // If we have a match, continue to the next tag
-                if (childTaxonomy.getName().equals(taxonomyList.get(counter))) {
-                    taxonomyRoot = childTaxonomy;
-                    counter++;
-                    break;
-                }
-            }
-        }
-        return taxonomyRoot;
-    }
-
-    /**
-     * Helper method that applies the previous approved/published state to updated content. The collection will be cleared
-     * afterwards.
-     *
-     * @param importedContents The list to handle
-     */
-    public void applyPreviousState(Collection<Content> importedContents) {
-        // publish the remaining documents
-        if (!importedContents.isEmpty()) {
-            contentPublishHelper.applyPreviousState(importedContents, autoPublish);
-            importedContents.clear();
-        }
+    public void approveAndPublish(ContentPublishHelper.PendingPublication publication) {
+        contentPublishHelper.approveAndPublish(publication);
     }
 
     /**
@@ -174,4 +119,13 @@ public class CSVContentHelper {
             return lock;
         }
     }
+
+    /**
+     * Sets the number of updated contents which are approved and published together.
+     *
+     * @param publicationChunkSize the number of contents per chunk
+     */
+    public void setPublicationChunkSize(int publicationChunkSize) {
+        contentPublishHelper.setPublicationChunkSize(publicationChunkSize);
+    }
 }
@@ -0,0 +1,166 @@
+package com.coremedia.csv.importer;
+
+import com.coremedia.cap.common.CapSession;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Worker threads which import the records of a CSV file in parallel. Each worker has a bounded queue of its own, and
+ * the records of a content are always dispatched to the same worker, so the writes to a content keep the order of
+ * the CSV file. The parser thread blocks when the queue of a worker is full. The workers write with the session of
+ * the importing user.
+ */
+public class CSVImportWorkers implements AutoCloseable {
+
+    /**
+     * Task which stops a worker once its queue is drained.
+     */
+    private static final Runnable STOP = () -> {
+    };
+
+    /**
+     * The queues of the workers.
+     */
+    private final List<BlockingQueue<Runnable>> queues = new ArrayList<>();
+
+    /**
+     * The worker threads.
+     */
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * The number of dispatched tasks which have not completed yet. Guarded by this.
+     */
+    private int pending;
+
+    /**
+     * The first unexpected failure of a task, which aborts the import. Guarded by this.
+     */
+    private RuntimeException failure;
+
+    /**
+     * Constructor. Starts the workers.
+     *
+     * @param workers       the number of worker threads
+     * @param queueCapacity the maximum number of records waiting for each worker
+     * @param session       the session of the importing user
+     */
+    public CSVImportWorkers(int workers, int queueCapacity, CapSession session) {
+        for (int i = 0; i < workers; i++) {
+            BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(queueCapacity);
+            Thread thread = new Thread(() -> work(queue, session), "csv-import-" + (i + 1));
+            thread.setDaemon(true);
+            queues.add(queue);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Dispatches a task to the worker of a key. Tasks with the same key are run in the order of their dispatch.
+     *
+     * @param key  the key, e.g. the ID of the content the task writes
+     * @param task the task
+     * @throws RuntimeException the failure of a previous task, which aborts the import
+     */
+    public void dispatch(Object key, Runnable task) {
+        synchronized (this) {
+            throwFailure();
+            pending++;
+        }
+        try {
+            queues.get(Math.floorMod(key.hashCode(), queues.size())).put(task);
+        } catch (InterruptedException e) {
+            completed(null);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while dispatching a CSV record", e);
+        }
+    }
+
+    /**
+     * Dispatches a task to every worker, after the tasks already dispatched to it, e.g. to flush state kept per
+     * worker.
+     *
+     * @param task the task
+     * @throws RuntimeException the failure of a previous task, which aborts the import
+     */
+    public void dispatchToAll(Runnable task) {
+        for (int i = 0; i < queues.size(); i++) {
+            dispatch(i, task);
+        }
+    }
+
+    /**
+     * Waits until all dispatched tasks have completed, e.g. before the imported contents are published.
+     *
+     * @throws RuntimeException the failure of a task, which aborts the import
+     */
+    public synchronized void awaitIdle() {
+        try {
+            while (pending > 0 && failure == null) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the CSV import workers", e);
+        }
+        throwFailure();
+    }
+
+    /**
+     * Stops the workers. Tasks which have not been started yet are discarded, so the workers should be awaited first
+     * unless the import is aborted.
+     */
+    @Override
+    public void close() {
+        for (BlockingQueue<Runnable> queue : queues) {
+            queue.clear();
+            queue.offer(STOP);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void work(BlockingQueue<Runnable> queue, CapSession session) {
+        // the contents are written with the rights, and in the name, of the importing user
+        session.activate();
+        try {
+            Runnable task;
+            while ((task = queue.take()) != STOP) {
+                RuntimeException taskFailure = null;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    taskFailure = e;
+                } catch (Error e) {
+                    taskFailure = new IllegalStateException("CSV import worker failed", e);
+                }
+                completed(taskFailure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void completed(RuntimeException taskFailure) {
+        pending--;
+        if (taskFailure != null && failure == null) {
+            failure = taskFailure;
+        }
+        notifyAll();
+    }
+
+    private void throwFailure() {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
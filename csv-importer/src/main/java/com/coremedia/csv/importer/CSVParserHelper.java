@@ -4,6 +4,7 @@ import com.coremedia.cap.common.*;
 import com.coremedia.cap.content.*;
 import com.coremedia.cap.struct.Struct;
 import com.coremedia.cap.struct.StructService;
+import com.coremedia.csv.common.CSVDateFormatter;
 import com.coremedia.xml.Markup;
 import com.coremedia.xml.MarkupFactory;
 import org.apache.commons.collections4.map.HashedMap;
@@ -15,8 +16,10 @@ import org.slf4j.Logger;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.coremedia.csv.common.CSVConstants.*;
 
@@ -46,16 +49,26 @@ public class CSVParserHelper {
      */
     private Content subjectTaxonomyRootFolder;
 
+    /**
+     * The index of the subject taxonomies by path, built when the first tag is resolved. Guarded by this.
+     */
+    private TaxonomyPathIndex subjectTaxonomyIndex;
+
     /**
      * Counter for the number of individual content updates imported.
      */
-    private int contentImported = 0;
+    private final AtomicInteger contentImported = new AtomicInteger();
 
   /**
    * The first content updated in the CSV import.
    */
   private Content firstContent;
 
+    /**
+     * The number of the CSV record of the first content. Records may be imported out of order by parallel workers.
+     */
+    private long firstContentRecordNumber;
+
     /**
      * The list of currently imported contents that have not yet been published. These contents will be published later
      * so that it is more efficient.
@@ -75,9 +88,9 @@ public class CSVParserHelper {
     protected final Map<String, Object> transitionLockByPath = new HashMap<>();
 
     /**
-     * The general date format the reporting tool will use when converting dates into Strings.
+     * The formatter the reporting tool will use when converting Strings into dates.
      */
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd-yyyy HH:mm:ss");
+    private CSVDateFormatter dateFormatter = CSVDateFormatter.getDefault();
 
     /**
      * The number of documents that must be imported before performing a publish.
@@ -90,9 +103,40 @@ public class CSVParserHelper {
     private Map<String, PropertyValueObjectProcessor> propertyValueObjectProcessors;
 
     /**
-     * Some content don't have local settings - we need to check for this.
+     * The number of imported records when the imported contents were last published.
      */
-    private boolean hasLocalSettings;
+    private int publishedImportCount;
+
+    /**
+     * The maximum number of checked-in chunks of imported contents waiting for publication, before the import waits.
+     */
+    private static final int PUBLICATION_QUEUE_CAPACITY = 2;
+
+    /**
+     * The batched writers of the import threads.
+     */
+    private final Map<Thread, BatchedContentWriter> contentWriters = new ConcurrentHashMap<>();
+
+    /**
+     * The latency within which a batch of writes should complete. Batches grow while they are faster.
+     */
+    private static final long BATCH_TARGET_LATENCY_MILLIS = 2000;
+
+    /**
+     * The number of worker threads which import records in parallel. With a single worker, records are imported on
+     * the calling thread.
+     */
+    private int workers = 1;
+
+    /**
+     * The number of records read ahead, whose contents are fetched from the content server in bulk.
+     */
+    private int readAheadWindow = 100;
+
+    /**
+     * The maximum number of records waiting for each worker, before the parser waits.
+     */
+    private static final int WORKER_QUEUE_CAPACITY = 100;
 
     /**
      * Constructor.
@@ -128,70 +172,296 @@ public class CSVParserHelper {
     public void parseCSV(CSVParser parser, Map<String, String> reportHeadersToContentProperties) {
 
         instantiateTaxonomyProperties();
-        for (CSVRecord record : parser) {
+        if (workers > 1) {
+            logger.info("Importing CSV records with {} workers", workers);
+        }
+        boolean pictureColumns = reportHeadersToContentProperties.values().stream()
+                .anyMatch(propertyName -> propertyName.contains(PROPERTY_PREFIX_PICTURES));
+        // the background threads act in the session of the importing user, e.g. of the editor in Studio
+        CapSession session = contentRepository.getConnection().getSession();
+        try (AsyncPublicationStage publicationStage = new AsyncPublicationStage(contentHelper, session,
+                PUBLICATION_QUEUE_CAPACITY, logger);
+             CSVImportWorkers importWorkers = workers > 1
+                ? new CSVImportWorkers(workers, WORKER_QUEUE_CAPACITY, session) : null) {
+            Iterator<CSVRecord> records = parser.iterator();
+            List<CSVRecord> window = new ArrayList<>(readAheadWindow);
+            while (records.hasNext()) {
+                // read ahead a window of records, so that their contents can be fetched in bulk
+                window.clear();
+                while (records.hasNext() && window.size() < readAheadWindow) {
+                    window.add(records.next());
+                }
+                prefetchContents(window, reportHeadersToContentProperties);
 
-            // reset success boolean - success will be calculated per record
-            boolean success = true;
+                for (CSVRecord record : window) {
+                    checkPublishImportedContent(importWorkers, publicationStage);
+                    if (importWorkers == null) {
+                        importRecord(record, parser, reportHeadersToContentProperties);
+                    } else {
+                        // the records of a content are imported by the same worker, in the order of the CSV file
+                        importWorkers.dispatch(getWorkerKey(record, pictureColumns),
+                                () -> importRecord(record, parser, reportHeadersToContentProperties));
+                    }
+                }
+                // the writes of the window are batched, flush them before the next window is read
+                flushContentWriters(importWorkers);
+            }
+            if (importWorkers != null) {
+                importWorkers.awaitIdle();
+            }
+            performFinalImport(publicationStage);
+        }
+    }
 
-            // reset hasLocalSettings - hasLocalSettings will be calculated per record
-            hasLocalSettings = true;
+    /**
+     * Gets the key by which a record is dispatched to a worker. The records of a content are dispatched by the content.
+     * Picture columns write the main picture of the content, which may be shared by several contents, so if the CSV
+     * has picture columns, the records of a content with a main picture are dispatched by the picture instead. Then
+     * all writes to a picture are made by the same worker, in the order of the CSV file, and the records of a content
+     * still keep their order as long as its main picture is not changed by the import.
+     *
+     * @param record         the CSV record
+     * @param pictureColumns whether the CSV has columns of the main picture
+     * @return the key of the worker importing the record
+     */
+    private Object getWorkerKey(CSVRecord record, boolean pictureColumns) {
+        String contentId = record.get(COLUMN_ID);
+        try {
+            Content content = getContentById(contentId);
+            if (content == null) {
+                return contentId;
+            }
+            if (pictureColumns && content.getType().getDescriptor(PROPERTY_PICTURES) != null) {
+                Object pictures = content.get(PROPERTY_PICTURES);
+                if (pictures instanceof List && !((List<?>) pictures).isEmpty()
+                        && ((List<?>) pictures).get(0) != null) {
+                    return ((Content) ((List<?>) pictures).get(0)).getId();
+                }
+            }
+            return content.getId();
+        } catch (RuntimeException e) {
+            // the record fails on import and is reported there, nothing is written for it
+            logger.debug("Failed to get the content of CSV record {}", record.getRecordNumber(), e);
+            return contentId;
+        }
+    }
 
-            // Want to check if the content this record refers to even exists
-            Content content = fetchContentFromRecord(record, contentRepository);
-            if (content != null) {
+    /**
+     * Imports a single CSV record into the content it refers to. If the record fails to update, the error is logged
+     * and the record is skipped.
+     *
+     * @param record                           the CSV record
+     * @param parser                           the CSV parser which parsed the record
+     * @param reportHeadersToContentProperties the map of all possible CSV headers and the properites mapped to into the
+     *                                         content
+     */
+    private void importRecord(CSVRecord record, CSVParser parser, Map<String, String> reportHeadersToContentProperties) {
 
-                // Next we need to verify that the content types are the same. If they aren't, then we want to skip.
-                // We do not want the users to think they can update the type in the CSV and have the content
-                // magically change types. This needs to be logged and skipped - because properties change between
-                // different types of content
-                if (verifyContentType(content, record)) {
+        // reset success boolean - success will be calculated per record
+        boolean success = true;
 
-                    checkPublishImportedContent();
-                    logger.info("Started parsing CSV for content with ID " + content.getId());
+        // Want to check if the content this record refers to even exists
+        Content content = fetchContentFromRecord(record, contentRepository);
+        if (content != null) {
 
-                    // Currently we have 1. the Map of the CSV record containing the A) column headers and B) values
-                    // of the properties to upload and 2. the Map of A) CSV headers to B) property keys. So we need
-                    // to match the values from the columns headers to their respective property keys.
-                    Map<String, String> recordStringProperties = generateRecordPropertiesMap(
-                            reportHeadersToContentProperties, record.toMap());
+            // Next we need to verify that the content types are the same. If they aren't, then we want to skip.
+            // We do not want the users to think they can update the type in the CSV and have the content
+            // magically change types. This needs to be logged and skipped - because properties change between
+            // different types of content
+            if (verifyContentType(content, record)) {
 
-                    // This map is the final properties that are to be uploaded to the content
-                    Map<String, Object> recordObjectProperties = new HashedMap();
+                logger.info("Started parsing CSV for content with ID " + content.getId());
 
-                    // This is the map of tags. Currently this map will only contain Subject taxonomies, but if this
-                    // changes we will want to add more keys to this map
-                    Map<String, Set<Content>> tagsMap = new HashMap<>();
+                // The record is compared with the current state of the content, which must include the pending write
+                // of a previous record
+                flushPendingWrite(content);
 
-                    int id = IdHelper.parseContentId(content.getId());
+                // Currently we have 1. the Map of the CSV record containing the A) column headers and B) values
+                // of the properties to upload and 2. the Map of A) CSV headers to B) property keys. So we need
+                // to match the values from the columns headers to their respective property keys.
+                Map<String, String> recordStringProperties = generateRecordPropertiesMap(
+                        reportHeadersToContentProperties, record.toMap());
 
-                    // Some content object do not have local settings, so we must account for this as getStruct will
-                    // throw an exception if this is the case and fail the import
-                    if (!content.getType().isSubtypeOf("CMLinkable")) {
-                        hasLocalSettings = false;
-                        logger.debug("Content with id {} does not have a local settings.", id);
-                    }
+                // This map is the final properties that are to be uploaded to the content
+                Map<String, Object> recordObjectProperties = new HashedMap();
 
-                    if (success) {
-                        // Converts all String properties to their respective objects
-                        success = convertStringProperties(content, recordStringProperties, recordObjectProperties,
-                                tagsMap);
-                    }
+                // This is the map of tags. Currently this map will only contain Subject taxonomies, but if this
+                // changes we will want to add more keys to this map
+                Map<String, Set<Content>> tagsMap = new HashMap<>();
 
-                    if (success) {
-                        updateTaxonomies(content, recordObjectProperties, parser, tagsMap);
-                        success = setObjectPropertiesInContent(content, recordObjectProperties);
+                if (success) {
+                    // Converts all String properties to their respective objects
+                    success = convertStringProperties(content, recordStringProperties, recordObjectProperties,
+                            tagsMap);
+                }
 
-                        if (success && !recordObjectProperties.isEmpty()) {
-                          if(firstContent == null) {
-                            firstContent = content;
-                          }
-                            contentImported++;
+                if (success) {
+                    updateTaxonomies(content, recordObjectProperties, parser, tagsMap);
+                    writeContent(record, content, recordObjectProperties);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetches the contents of a window of CSV records in bulk: first the contents the records refer to, then the
+     * contents linked by their link columns and their main pictures. The records are imported from the prefetched
+     * contents afterwards, instead of loading every content with a round-trip of its own. Records which cannot be
+     * resolved here are skipped, they are reported when they are imported.
+     *
+     * @param window                           the CSV records
+     * @param reportHeadersToContentProperties the map of all possible CSV headers and the properites mapped to into the
+     *                                         content
+     */
+    private void prefetchContents(List<CSVRecord> window, Map<String, String> reportHeadersToContentProperties) {
+        try {
+            List<Content> contents = new ArrayList<>(window.size());
+            for (CSVRecord record : window) {
+                contents.add(getContentById(record.get(COLUMN_ID)));
+            }
+            prefetch(contents);
+
+            Set<Content> linkedContents = new LinkedHashSet<>();
+            for (int i = 0; i < window.size(); i++) {
+                Content content = contents.get(i);
+                if (content == null) {
+                    continue;
+                }
+                CSVRecord record = window.get(i);
+                for (Map.Entry<String, String> entry : reportHeadersToContentProperties.entrySet()) {
+                    String propertyName = entry.getValue();
+                    String value = record.isMapped(entry.getKey()) ? record.get(entry.getKey()) : null;
+                    if (value == null || value.isEmpty()) {
+                        continue;
+                    }
+                    if (propertyName.contains(PROPERTY_PREFIX_PICTURES)) {
+                        // types without pictures fail on import, they must not abort the prefetch of the window
+                        if (content.getType().getDescriptor(PROPERTY_PICTURES) != null) {
+                            Object pictures = content.get(PROPERTY_PICTURES);
+                            if (pictures instanceof List && !((List<?>) pictures).isEmpty()) {
+                                linkedContents.add((Content) ((List<?>) pictures).get(0));
+                            }
+                        }
+                    } else {
+                        CapPropertyDescriptor descriptor = content.getType().getDescriptor(propertyName);
+                        if (descriptor != null && descriptor.getType() == CapPropertyDescriptorType.LINK) {
+                            for (String link : convertObjectStringToStringList(value)) {
+                                linkedContents.add(getContentById(link));
+                            }
                         }
                     }
                 }
             }
+            prefetch(linkedContents);
+        } catch (Exception e) {
+            // prefetching is an optimization only, the records are still imported one by one
+            logger.debug("Failed to prefetch the contents of {} CSV records", window.size(), e);
         }
-        performFinalImport();
+    }
+
+    /**
+     * Fetches the properties of contents in bulk.
+     *
+     * @param contents the contents, may contain null
+     */
+    private void prefetch(Collection<Content> contents) {
+        List<Content> existingContents = new ArrayList<>(contents);
+        existingContents.removeIf(Objects::isNull);
+        // Iterating the prefetching collection performs the round-trips
+        for (Content content : contentRepository.withPrefetch(existingContents, readAheadWindow)) {
+            logger.trace("Prefetched content {}", content.getId());
+        }
+    }
+
+    /**
+     * Gets a content by its numeric ID without validating it.
+     *
+     * @param contentId the numeric ID of the content
+     * @return the content, or null if the ID is not numeric or the content does not exist
+     */
+    private Content getContentById(String contentId) {
+        if (contentId == null || contentId.isEmpty() || !StringUtils.isNumeric(contentId)) {
+            return null;
+        }
+        return contentRepository.getContent(Integer.toString(IdHelper.parseContentId(contentId)));
+    }
+
+    /**
+     * Writes the properties of a record into its content with the batch of the current thread. Once the batch has
+     * been executed, the record is counted and its content is published with the next imported contents.
+     *
+     * @param record     the CSV record
+     * @param content    the content to update
+     * @param properties the properties to set
+     */
+    private void writeContent(CSVRecord record, Content content, Map<String, Object> properties) {
+        if (properties.isEmpty()) {
+            logger.info("Skip writing content because of no properties to write (id: " + content.getId() + ")");
+            return;
+        }
+        getContentWriter().write(content, properties, written -> {
+            if (written) {
+                importedContents.add(content);
+                recordImported(record, content);
+            }
+        });
+    }
+
+    /**
+     * Gets the batched writer of the current thread.
+     *
+     * @return the batched writer
+     */
+    private BatchedContentWriter getContentWriter() {
+        return contentWriters.computeIfAbsent(Thread.currentThread(),
+                thread -> new BatchedContentWriter(contentRepository, this::setObjectPropertiesInContent,
+                        BATCH_TARGET_LATENCY_MILLIS, logger));
+    }
+
+    /**
+     * Executes the pending batch of the current thread if it writes a content, so that the content is read with the
+     * properties of the previous records. The records of a content are imported by the same thread.
+     *
+     * @param content the content
+     */
+    private void flushPendingWrite(Content content) {
+        BatchedContentWriter contentWriter = contentWriters.get(Thread.currentThread());
+        if (contentWriter != null) {
+            contentWriter.flushIfPending(content);
+        }
+    }
+
+    /**
+     * Executes the pending batches of writes, on each worker if the records are imported in parallel.
+     *
+     * @param importWorkers the import workers, or null if the records are imported on the current thread
+     */
+    private void flushContentWriters(CSVImportWorkers importWorkers) {
+        Runnable flush = () -> {
+            BatchedContentWriter contentWriter = contentWriters.get(Thread.currentThread());
+            if (contentWriter != null) {
+                contentWriter.flush();
+            }
+        };
+        if (importWorkers == null) {
+            flush.run();
+        } else {
+            importWorkers.dispatchToAll(flush);
+        }
+    }
+
+    /**
+     * Counts an imported record, and remembers its content if it is the first record of the CSV file imported so far.
+     *
+     * @param record  the imported CSV record
+     * @param content the content the record has been imported into
+     */
+    private synchronized void recordImported(CSVRecord record, Content content) {
+        if (firstContent == null || record.getRecordNumber() < firstContentRecordNumber) {
+            firstContent = content;
+            firstContentRecordNumber = record.getRecordNumber();
+        }
+        contentImported.incrementAndGet();
     }
 
     /**
@@ -215,6 +485,19 @@ public class CSVParserHelper {
         return success;
     }
 
+    /**
+     * Gets the index of the subject taxonomies, building it on first use. The index is built only once per import,
+     * so imports without tags do not read the taxonomy tree.
+     *
+     * @return the index of the subject taxonomies, or null if the taxonomy root folder has not been found
+     */
+    private synchronized TaxonomyPathIndex getSubjectTaxonomyIndex() {
+        if (subjectTaxonomyIndex == null && subjectTaxonomyRootFolder != null && subjectTaxonomyRootFolder.isFolder()) {
+            subjectTaxonomyIndex = new TaxonomyPathIndex(contentRepository, subjectTaxonomyRootFolder, logger);
+        }
+        return subjectTaxonomyIndex;
+    }
+
     /**
      * Fetches the Content from CoreMedia specified by the Id column in the CSVRecord, if available.
      *
@@ -278,15 +561,25 @@ public class CSVParserHelper {
 
     /**
      * Checks to see if the number of imported content has reached its threshold to be published. Because publishing
-     * content can be an expensive operation, we do this in bulk to prevent hangs.
+     * content can be an expensive operation, we do this in bulk to prevent hangs. The imported content is checked in
+     * right away, and approved and published by the background publication stage while the import continues.
+     *
+     * @param importWorkers    the import workers, or null if the records are imported on the current thread
+     * @param publicationStage the stage which approves and publishes the checked-in content
      */
-    private void checkPublishImportedContent() {
-        // Publish only when we hit out bulk publish amount
-        if (contentImported > 0 && (contentImported % BULK_PUBLISH_INT) == 0) {
+    private void checkPublishImportedContent(CSVImportWorkers importWorkers, AsyncPublicationStage publicationStage) {
+        // Publish only when we hit out bulk publish amount. Records are counted once their batch has been written, so
+        // the count may skip over a multiple of the bulk publish amount
+        if (contentImported.get() - publishedImportCount >= BULK_PUBLISH_INT) {
+            // publishing checks in the imported contents, so no record may be written meanwhile
+            if (importWorkers != null) {
+                importWorkers.awaitIdle();
+            }
+            publishedImportCount = contentImported.get();
 
             // publish in between, because the overall process takes to long.
             // //Try to finish up what you can.
-            contentHelper.applyPreviousState(importedContents);
+            publicationStage.submit(contentHelper.checkInImportedContents(importedContents));
         }
     }
 
@@ -503,8 +796,9 @@ public class CSVParserHelper {
             if (tagListForTargetProperty == null) {
                 tagListForTargetProperty = new HashSet<>();
             }
-            if (subjectTaxonomyRootFolder != null) {
-                Content taxonomy = contentHelper.establishTax(value, subjectTaxonomyRootFolder);
+            TaxonomyPathIndex taxonomyIndex = getSubjectTaxonomyIndex();
+            if (taxonomyIndex != null) {
+                Content taxonomy = taxonomyIndex.resolve(value);
                 if (taxonomy != null) {
                     tagListForTargetProperty.add(taxonomy);
                     tagsMap.put(propertyName, tagListForTargetProperty);
@@ -577,12 +871,20 @@ public class CSVParserHelper {
                         if (propertyStringValue.isEmpty()) {
                             propertyValueObject = null;
                         } else {
-                            propertyValueObject = dateFormat.format(propertyStringValue);
+                            try {
+                                propertyValueObject = dateFormatter.parse(propertyStringValue);
+                            } catch (DateTimeParseException e) {
+                                ParseException parseException = new ParseException(e.getMessage(), e.getErrorIndex());
+                                parseException.initCause(e);
+                                throw parseException;
+                            }
                         }
                         break;
                     case STRUCT:
+                        // Some content object do not have local settings, so we must account for this as getStruct
+                        // will throw an exception if this is the case and fail the import
                         if (propertyName.equals(PROPERTY_LOCAL_SETTINGS)) {
-                          if (!hasLocalSettings && !propertyValueObject.toString().isEmpty()) {
+                          if (!content.getType().isSubtypeOf("CMLinkable") && !propertyValueObject.toString().isEmpty()) {
                             logger.error("CSV Content has a local setting but the content type has no local settings.");
                             success = false;
                             break;
@@ -677,6 +979,8 @@ public class CSVParserHelper {
                 propertyName = propertyName.substring(propertyName.indexOf(".") + 1);
                 Content mainPicture = pictures.get(0);
                 if (mainPicture != null) {
+                    // the picture is written right away, after any pending write of a previous record
+                    flushPendingWrite(mainPicture);
 
                     // In the same fashion, we can call the same conversion and setting subroutines that we are using
                     // for the parent content on the picture.
@@ -773,15 +1077,58 @@ public class CSVParserHelper {
 
     /**
      * Performs the final import of all remaining content and logging for the CSV Importer.
+     *
+     * @param publicationStage the stage which approves and publishes the checked-in content
      */
-    private void performFinalImport() {
-        // approve/publish the remaining documents
-        contentHelper.applyPreviousState(importedContents);
-        logger.info("Documents written: " + contentImported);
+    private void performFinalImport(AsyncPublicationStage publicationStage) {
+        // approve/publish the remaining documents, and wait for the publication of all chunks
+        publicationStage.submit(contentHelper.checkInImportedContents(importedContents));
+        publicationStage.awaitIdle();
+        logger.info("Documents written: " + contentImported.get());
         logger.info("WritingHandler: executing finished.");
     }
 
     public Content getFirstContent() {
       return firstContent;
     }
+
+    /**
+     * Sets the formatter used to parse date properties. Should match the date format of the template the CSV was
+     * exported with.
+     *
+     * @param dateFormatter the date formatter to set
+     */
+    public void setDateFormatter(CSVDateFormatter dateFormatter) {
+        this.dateFormatter = dateFormatter;
+    }
+
+    /**
+     * Sets the number of worker threads which import records in parallel. Records of the same content are always
+     * imported in the order of the CSV file.
+     *
+     * @param workers the number of workers, 1 to import records sequentially
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Sets the number of records which are read ahead, so that their contents, linked contents and main pictures can
+     * be fetched from the content server in bulk.
+     *
+     * @param readAheadWindow the number of records read ahead
+     */
+    public void setReadAheadWindow(int readAheadWindow) {
+        this.readAheadWindow = Math.max(1, readAheadWindow);
+    }
+
+    /**
+     * Sets the number of imported contents which are approved and published together. If a chunk fails, it is split
+     * until the failing contents are found.
+     *
+     * @param publicationChunkSize the number of contents per chunk
+     */
+    public void setPublicationChunkSize(int publicationChunkSize) {
+        contentHelper.setPublicationChunkSize(publicationChunkSize);
+    }
 }
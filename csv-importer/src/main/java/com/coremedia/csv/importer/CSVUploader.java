@@ -6,6 +6,9 @@ import com.coremedia.cap.user.Group;
 import com.coremedia.cap.user.User;
 import com.coremedia.cap.user.UserRepository;
 import com.coremedia.cmdline.AbstractSpringAwareUAPIClient;
+import com.coremedia.csv.common.CSVConfig;
+import com.coremedia.csv.common.CSVDateFormatter;
+import com.coremedia.csv.common.CSVTemplateNotFoundException;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
@@ -56,6 +59,28 @@ public class CSVUploader extends AbstractSpringAwareUAPIClient {
      */
     private static final String AUTO_PUBLISH_DESCRIPTION = "Use/specify if updated content should be automatically published if the prior version was published.";
 
+    /**
+     * Short version of the command line argument that specifies the number of import workers.
+     */
+    private static final String WORKERS_PARAMETER_SHORT = "w";
+
+    /**
+     * Long version of the command line argument that specifies the number of import workers.
+     */
+    private static final String WORKERS_PARAMETER_LONG = "workers";
+
+    /**
+     * User description of the workers parameter.
+     */
+    private static final String WORKERS_DESCRIPTION = "The number of threads which import records in parallel. " +
+            "Overrides the number configured in csv-uploader.xml.";
+
+    /**
+     * The template of the reporting settings whose date format is used to parse the dates of the CSV file, like in
+     * the Studio import.
+     */
+    private static final String DATE_FORMAT_TEMPLATE = "default";
+
     /**
      * Error message when the source CSV file does not exist or is a folder.
      */
@@ -89,6 +114,21 @@ public class CSVUploader extends AbstractSpringAwareUAPIClient {
      */
     private boolean autoPublish;
 
+    /**
+     * The number of threads which import records in parallel, or null if not specified on the command line.
+     */
+    private Integer workers;
+
+    /**
+     * The number of records read ahead, whose contents are fetched in bulk.
+     */
+    private int readAheadWindow = 100;
+
+    /**
+     * The number of imported contents which are approved and published together.
+     */
+    private int publicationChunkSize = ContentPublishHelper.DEFAULT_PUBLICATION_CHUNK_SIZE;
+
     /**
      * A relational map consisting of the names of the CSV headers and their corresponding content property names.
      */
@@ -139,6 +179,12 @@ public class CSVUploader extends AbstractSpringAwareUAPIClient {
                 .isRequired(false)
                 .hasArg(false)
                 .create(AUTO_PUBLISH_PARAMETER_SHORT));
+        options.addOption(OptionBuilder.hasArg()
+                .withDescription(WORKERS_DESCRIPTION)
+                .withLongOpt(WORKERS_PARAMETER_LONG)
+                .isRequired(false)
+                .hasArg(true)
+                .create(WORKERS_PARAMETER_SHORT));
     }
 
     /**
@@ -147,7 +193,7 @@ public class CSVUploader extends AbstractSpringAwareUAPIClient {
     @NonNull
     @Override
     protected String getUsage() {
-        return "cm csv-uploader -u <user> [other options] [--" + AUTO_PUBLISH_PARAMETER_LONG + "] --" + SOURCE_CSV_PARAMETER_LONG
+        return "cm csv-uploader -u <user> [other options] [--" + AUTO_PUBLISH_PARAMETER_LONG + "] [--" + WORKERS_PARAMETER_LONG + " <workers>] --" + SOURCE_CSV_PARAMETER_LONG
                 + " <source CSV file>";
     }
 
@@ -159,6 +205,17 @@ public class CSVUploader extends AbstractSpringAwareUAPIClient {
         // Pull args from command line
         sourceCSV = commandLine.getOptionValue(SOURCE_CSV_PARAMETER_SHORT);
         autoPublish = commandLine.hasOption(AUTO_PUBLISH_PARAMETER_SHORT);
+        if (commandLine.hasOption(WORKERS_PARAMETER_SHORT)) {
+            try {
+                workers = Integer.parseInt(commandLine.getOptionValue(WORKERS_PARAMETER_SHORT));
+            } catch (NumberFormatException e) {
+                workers = 0;
+            }
+            if (workers < 1) {
+                getLogger().error("ERROR: The number of workers must be a positive number.");
+                return false;
+            }
+        }
         return true;
     }
 
@@ -231,6 +288,10 @@ public class CSVUploader extends AbstractSpringAwareUAPIClient {
             CSVParser parser = new CSVParser(new BufferedReader(new InputStreamReader(fileStream, "UTF-8")),
                     CSVFormat.EXCEL.withHeader());
             csvHandler = new CSVParserHelper(autoPublish, getContentRepository(), logger);
+            csvHandler.setDateFormatter(getDateFormatter());
+            csvHandler.setWorkers(getWorkers());
+            csvHandler.setReadAheadWindow(getConfiguration().readAheadWindow);
+            csvHandler.setPublicationChunkSize(getConfiguration().publicationChunkSize);
             logger.info("CSVParser: executing ...");
             csvHandler.parseCSV(parser, reportHeadersToContentProperties);
             logger.info("CSVParser: Completed content upload.");
@@ -241,6 +302,46 @@ public class CSVUploader extends AbstractSpringAwareUAPIClient {
       }
     }
 
+    /**
+     * Gets the number of import workers, as specified on the command line or else as configured for the
+     * "csvUploader" bean.
+     *
+     * @return the number of import workers
+     */
+    private int getWorkers() {
+        if (workers == null) {
+            workers = getConfiguration().workers;
+        }
+        return workers != null ? workers : 1;
+    }
+
+    /**
+     * Gets the formatter for the dates of the CSV file, as configured for the "default" template of the reporting
+     * settings. Files exported with a custom date format or time zone can thus be imported again.
+     *
+     * @return the date formatter, the default formatter if the template is not configured
+     */
+    private CSVDateFormatter getDateFormatter() {
+        CSVConfig csvConfig = new CSVConfig();
+        csvConfig.setContentRepository(getContentRepository());
+        csvConfig.setSettingsPath(CSVConfig.DEFAULT_SETTINGS_PATH);
+        try {
+            return csvConfig.getDateFormatter(DATE_FORMAT_TEMPLATE);
+        } catch (CSVTemplateNotFoundException e) {
+            logger.warn("{}, dates are parsed with the default format", e.getMessage());
+            return CSVDateFormatter.getDefault();
+        }
+    }
+
+    /**
+     * Gets the "csvUploader" bean, which holds the configuration of csv-uploader.xml.
+     *
+     * @return the configured uploader
+     */
+    private CSVUploader getConfiguration() {
+        return getApplicationContext().getBean("csvUploader", CSVUploader.class);
+    }
+
   /**
    * Checks whether the current user is authorized to initiate a CSV export.
    *
@@ -271,6 +372,10 @@ public class CSVUploader extends AbstractSpringAwareUAPIClient {
         CSVParser parser = new CSVParser(new BufferedReader(new InputStreamReader(fileInputStream, "UTF-8")),
                 CSVFormat.EXCEL.withHeader());
         csvHandler = new CSVParserHelper(autoPublish, getContentRepository(), logger);
+        csvHandler.setDateFormatter(getDateFormatter());
+        csvHandler.setWorkers(getWorkers());
+        csvHandler.setReadAheadWindow(getConfiguration().readAheadWindow);
+        csvHandler.setPublicationChunkSize(getConfiguration().publicationChunkSize);
         logger.info("CSVParser: executing ...");
         csvHandler.parseCSV(parser, reportHeadersToContentProperties);
         logger.info("CSVParser: Completed content upload.");
@@ -289,6 +394,33 @@ public class CSVUploader extends AbstractSpringAwareUAPIClient {
         this.reportHeadersToContentProperties = reportHeadersToContentProperties;
     }
 
+    /**
+     * Sets the number of threads which import records in parallel. Can be overridden on the command line.
+     *
+     * @param workers the number of import workers, 1 to import records sequentially
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Sets the number of records which are read ahead, so that their contents can be fetched in bulk.
+     *
+     * @param readAheadWindow the number of records read ahead
+     */
+    public void setReadAheadWindow(int readAheadWindow) {
+        this.readAheadWindow = readAheadWindow;
+    }
+
+    /**
+     * Sets the number of imported contents which are approved and published together.
+     *
+     * @param publicationChunkSize the number of contents per chunk
+     */
+    public void setPublicationChunkSize(int publicationChunkSize) {
+        this.publicationChunkSize = publicationChunkSize;
+    }
+
   /**
    * Sets the authorized groups.
    *
@@ -13,6 +13,7 @@ import com.coremedia.cap.content.publication.PublicationSet;
 import com.coremedia.cap.content.publication.results.PublicationResult;
 import com.coremedia.cap.content.publication.results.PublicationResultItem;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
@@ -20,6 +21,7 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -31,6 +33,16 @@ public class ContentPublishHelper {
     private Logger logger;
     private List<String> invalidFileNameChars = Collections.singletonList("/");
     private List<String> invalidFileNames = Arrays.asList(".", "..");
+    private int publicationChunkSize = DEFAULT_PUBLICATION_CHUNK_SIZE;
+
+    public static final int DEFAULT_PUBLICATION_CHUNK_SIZE = 100;
+
+    /**
+     * Checked-in versions which are still to be approved or published, e.g. by a background publication stage.
+     */
+    private final Set<Version> pendingApprovals = ConcurrentHashMap.newKeySet();
+    private final Set<Version> pendingPublications = ConcurrentHashMap.newKeySet();
+
     @NonNull
     private final Collection<String> warnings = Collections.synchronizedList(new ArrayList<String>());
 
@@ -56,92 +68,194 @@ public class ContentPublishHelper {
     }
 
     /**
-     * Approves and/or publishes updated content depending on state of prior version.
+     * Checks in updated content and determines which of the checked-in versions are to be approved and/or published,
+     * depending on state of prior version. A prior version which is still pending approval or publication counts as
+     * approved or published, so that the state of content updated again is not lost.
      *
      * @param contents The collection of content objects that were updated
      * @param autoPublish Whether content should automatically be published if prior version was published
+     * @return The checked-in versions to approve and publish with {@link #approveAndPublish(PendingPublication)}
      */
-    public void applyPreviousState(Collection<Content> contents, boolean autoPublish) {
+    public PendingPublication checkIn(Collection<Content> contents, boolean autoPublish) {
+        PendingPublication publication = new PendingPublication();
         try {
             contentRepository.getConnection().flush();
             if (contents.size() > 0) {
                 List<Content> toBeApproved = new ArrayList<>();
-                List<Content> toBePublished = new ArrayList<>();
+                Set<Content> toBePublished = new HashSet<>();
 
                 PublicationService publicationService = contentRepository.getPublicationService();
-                // assemble list of content to be approved/published based on prior version
-                for (Content content : contents) {
+                // assemble list of content to be approved/published based on prior version, the contents are
+                // fetched in bulk per chunk, their publication states are still queried one by one
+                for (Content content : contentRepository.withPrefetch(contents, publicationChunkSize)) {
                     Version priorVersion = content.getCheckedOutVersion();
                     if (priorVersion == null)
                         continue;
-                    if (publicationService.isPublished(priorVersion)) {
+                    // the pending versions are checked first: a version is removed from them only after it has been
+                    // published, so a version which is neither pending nor published afterwards is not published
+                    if (pendingPublications.contains(priorVersion) || publicationService.isPublished(priorVersion)) {
                         toBeApproved.add(content);
                         if(autoPublish) {
                             toBePublished.add(content);
                         } else {
                             logger.info("No autopublish specified, skipping automatic publication of updated content " + content.getId());
                         }
-                    } else if (publicationService.isApproved(priorVersion)) {
+                    } else if (pendingApprovals.contains(priorVersion) || publicationService.isApproved(priorVersion)) {
                         toBeApproved.add(content);
                     }
                 }
                 // check in updated content
                 checkInAll(contents);
 
-                // approve content
-                logger.info("Approving " + toBeApproved.size() + " documents");
-                for(Content content : toBeApproved) {
+                for (Content content : toBeApproved) {
                     Version version = content.getCheckedInVersion();
-                    if(!publicationService.isPlaceApproved(content))
-                        publicationService.approvePlace(content);
-                    if(!publicationService.isApproved(version))
-                        publicationService.approve(version);
-                }
-
-                // publish content
-                Collection<Version> toBePublishedVersions = new ArrayList<>();
-                for(Content content : toBePublished) {
-                    Version version = content.getCheckedInVersion();
-                    if(!publicationService.isPlaceApproved(content))
-                        publicationService.approvePlace(content);
-                    if(!publicationService.isPublished(version))
-                        toBePublishedVersions.add(version);
-                }
-                if(autoPublish) {
-                    logger.info("Publishing " + toBePublished.size() + " documents");
-                    publish(toBePublishedVersions);
+                    publication.toBeApproved.add(version);
+                    pendingApprovals.add(version);
+                    if (toBePublished.contains(content)) {
+                        publication.toBePublished.add(version);
+                        pendingPublications.add(version);
+                    }
                 }
             }
         } catch (SessionNotOpenException snoe) {
             logger.error("SessionNotOpenException: Can't establish session with the content repository.", snoe);
         } catch (FlushFailedException ffe) {
             logger.error("FlushFailedException: Can't flush connection with the content repository.", ffe);
+        } catch (Exception e) {
+            logger.error("Could not check in documents ", e);
+        }
+        return publication;
+    }
+
+    /**
+     * Approves and/or publishes the versions checked in by {@link #checkIn(Collection, boolean)}. The versions are
+     * approved and published in chunks of {@link #setPublicationChunkSize(int) publicationChunkSize}. If a chunk
+     * fails, it is split in halves which are retried, so that only the failing versions are skipped.
+     *
+     * @param publication The checked-in versions to approve and publish
+     */
+    public void approveAndPublish(PendingPublication publication) {
+        try {
+            // approve content
+            logger.info("Approving " + publication.toBeApproved.size() + " documents");
+            Set<Version> failedApprovals = new HashSet<>();
+            for (List<Version> chunk : Lists.partition(publication.toBeApproved, publicationChunkSize)) {
+                long start = System.currentTimeMillis();
+                approve(chunk, failedApprovals);
+                logger.info("Approved chunk of " + chunk.size() + " documents in "
+                        + (System.currentTimeMillis() - start) + "ms");
+            }
+
+            // publish content, unless its approval failed
+            if (!publication.toBePublished.isEmpty()) {
+                List<Version> toBePublished = new ArrayList<>(publication.toBePublished);
+                toBePublished.removeAll(failedApprovals);
+                logger.info("Publishing " + toBePublished.size() + " documents");
+                for (List<Version> chunk : Lists.partition(toBePublished, publicationChunkSize)) {
+                    long start = System.currentTimeMillis();
+                    publish(chunk);
+                    logger.info("Published chunk of " + chunk.size() + " documents in "
+                            + (System.currentTimeMillis() - start) + "ms");
+                }
+            }
+        } catch (SessionNotOpenException snoe) {
+            logger.error("SessionNotOpenException: Can't establish session with the content repository.", snoe);
         } catch (Exception e) {
             logger.error("Could not publish documents ", e);
+        } finally {
+            pendingApprovals.removeAll(publication.toBeApproved);
+            pendingPublications.removeAll(publication.toBePublished);
+        }
+    }
+
+    /**
+     * Approves the places and checked-in versions of a chunk of documents using a batch process. If the batch fails,
+     * the chunk is split in halves which are approved separately.
+     *
+     * @param chunk           The checked-in versions to approve
+     * @param failedApprovals The collection to which versions are added that could not be approved
+     */
+    private void approve(List<Version> chunk, Collection<Version> failedApprovals) {
+        PublicationService publicationService = contentRepository.getPublicationService();
+        com.coremedia.cap.undoc.content.ContentRepository undocRepository =
+                (com.coremedia.cap.undoc.content.ContentRepository) contentRepository;
+        try {
+            List<Content> contents = new ArrayList<>();
+            for (Version version : chunk) {
+                contents.add(version.getContainingContent());
+            }
+            // Iterating the prefetching collection fetches the contents of the chunk in bulk. The publication service
+            // has no bulk methods, so the approval states below are still queried per content and version
+            for (Content content : contentRepository.withPrefetch(contents, contents.size())) {
+                logger.trace("Prefetched content {}", content.getId());
+            }
+            com.coremedia.cap.undoc.content.ContentRepository.Batch batch = undocRepository.createBatch();
+            for (Version version : chunk) {
+                Content content = version.getContainingContent();
+                if(!publicationService.isPlaceApproved(content))
+                    batch.approvePlace(content);
+                if(!publicationService.isApproved(version))
+                    batch.approve(version);
+            }
+            batch.executeBatch();
+        } catch (RuntimeException e) {
+            if (chunk.size() == 1) {
+                Content content = chunk.get(0).getContainingContent();
+                handleImportFailure("Could not approve content with id " + content.getId() + " (" + content.getPath() + ")", e);
+                failedApprovals.add(chunk.get(0));
+            } else {
+                logger.warn("Could not approve chunk of " + chunk.size() + " documents, retrying in halves: " + e.getMessage());
+                approve(chunk.subList(0, chunk.size() / 2), failedApprovals);
+                approve(chunk.subList(chunk.size() / 2, chunk.size()), failedApprovals);
+            }
         }
     }
 
     /**
-     * Publish a collection of documents.
+     * Publish a chunk of checked-in versions with a single publication set. If the publication fails, the chunk is
+     * split in halves which are published separately.
      *
-     * @param toBePublishedContent The collection of CoreMedia documents to publish
+     * @param chunk The chunk of versions to publish
      */
-    private void publish(Collection<Version> toBePublishedContent) {
+    private void publish(List<Version> chunk) {
         PublicationService publicationService = contentRepository.getPublicationService();
-        PublicationSet publicationSet = publicationService.createPublicationSet(toBePublishedContent);
+        Collection<Version> toBePublishedVersions = new ArrayList<>();
+        for (Version version : chunk) {
+            if(!publicationService.isPublished(version))
+                toBePublishedVersions.add(version);
+        }
+        if (toBePublishedVersions.isEmpty()) {
+            return;
+        }
         try {
+            PublicationSet publicationSet = publicationService.createPublicationSet(toBePublishedVersions);
             publicationService.publish(publicationSet);
         } catch (PublicationFailedException e) {
-            logger.error(MessageFormat.format("Cannot bulk publish places and versions: {0}", e.getMessage()), e);
-            PublicationResult publicationResult = e.getPublicationResult();
-            for (PublicationResultItem item : publicationResult.getResults()) {
-                if (item.isError()) {
-                    logger.error("Publication Error " + item.toString());
+            if (chunk.size() == 1) {
+                logger.error(MessageFormat.format("Cannot publish content {0}: {1}", chunk.get(0).getContainingContent().getId(), e.getMessage()), e);
+                PublicationResult publicationResult = e.getPublicationResult();
+                for (PublicationResultItem item : publicationResult.getResults()) {
+                    if (item.isError()) {
+                        logger.error("Publication Error " + item.toString());
+                    }
                 }
+            } else {
+                logger.warn("Cannot bulk publish chunk of " + chunk.size() + " documents, retrying in halves: " + e.getMessage());
+                publish(chunk.subList(0, chunk.size() / 2));
+                publish(chunk.subList(chunk.size() / 2, chunk.size()));
             }
         }
     }
 
+    /**
+     * Sets the number of documents which are approved and published together.
+     *
+     * @param publicationChunkSize The number of documents per chunk
+     */
+    public void setPublicationChunkSize(int publicationChunkSize) {
+        this.publicationChunkSize = Math.max(1, publicationChunkSize);
+    }
+
     /**
      * Converts a string to a CoreMedia document acceptable name. The document name may not be empty, may not be '.'or '..',
      * may not contain '/' characters and must not be too long (234 digits).
@@ -369,4 +483,29 @@ public class ContentPublishHelper {
         return contentRepository;
     }
 
+    /**
+     * The versions checked in by {@link #checkIn(Collection, boolean)}, which are to be approved and published.
+     */
+    public static class PendingPublication {
+        private final List<Version> toBeApproved = new ArrayList<>();
+        private final List<Version> toBePublished = new ArrayList<>();
+
+        /**
+         * Gets the versions to approve, which include the versions to publish.
+         *
+         * @return the unmodifiable list of versions to approve
+         */
+        public List<Version> getVersions() {
+            return Collections.unmodifiableList(toBeApproved);
+        }
+
+        /**
+         * Gets the number of versions to approve.
+         *
+         * @return the number of versions to approve, which includes the versions to publish
+         */
+        public int size() {
+            return toBeApproved.size();
+        }
+    }
 }
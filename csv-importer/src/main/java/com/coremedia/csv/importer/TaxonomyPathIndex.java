@@ -0,0 +1,161 @@
+package com.coremedia.csv.importer;
+
+import com.coremedia.cap.content.Content;
+import com.coremedia.cap.content.ContentRepository;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the taxonomies below a taxonomy root folder by their path, such as "/Subjects/Sports/Football/". The
+ * taxonomy tree is read once, level by level, and stored as a trie of taxonomy names, so that a path is resolved by
+ * one lookup per segment without accessing the content repository. The index is immutable once built and can be
+ * shared by the workers of an import.
+ */
+public class TaxonomyPathIndex {
+
+    /**
+     * The number of taxonomies of a level which are fetched from the content server at once.
+     */
+    private static final int PREFETCH_BATCH_SIZE = 500;
+
+    /**
+     * Property of a taxonomy which links its child taxonomies.
+     */
+    private static final String CHILDREN_PROPERTY = "children";
+
+    /**
+     * The root node, whose children are the top level taxonomies of the root folder.
+     */
+    private final Node root = new Node(null, null);
+
+    /**
+     * The number of indexed taxonomy paths.
+     */
+    private int size;
+
+    /**
+     * Builds the index of the taxonomies of a root folder. The top level taxonomies are the documents in the folder,
+     * their descendants are linked by the "children" property. A taxonomy linked by several parents is indexed below
+     * each of them. A link to an ancestor of the linking taxonomy is skipped, so cyclic links between taxonomies do not
+     * prevent the index from being built.
+     *
+     * @param contentRepository the content repository
+     * @param taxonomyRoot      the root folder of the taxonomies
+     * @param logger            logger from the tool using this index
+     */
+    public TaxonomyPathIndex(ContentRepository contentRepository, Content taxonomyRoot, Logger logger) {
+        long start = System.currentTimeMillis();
+        // the nodes of the taxonomies of the next level to index
+        List<Node> level = new ArrayList<>();
+        for (Content child : taxonomyRoot.getChildren()) {
+            if (child.isDocument()) {
+                level.add(new Node(child, root));
+            }
+        }
+        while (!level.isEmpty()) {
+            Set<Content> levelContents = new LinkedHashSet<>();
+            for (Node node : level) {
+                levelContents.add(node.content);
+            }
+            // Iterating the prefetching collection fetches the names and children of the whole level in bulk
+            for (Content content : contentRepository.withPrefetch(levelContents, PREFETCH_BATCH_SIZE)) {
+                logger.trace("Prefetched taxonomy {}", content.getId());
+            }
+            List<Node> nextLevel = new ArrayList<>();
+            for (Node node : level) {
+                node.parent.addChild(node);
+                size++;
+                Object children = node.content.get(CHILDREN_PROPERTY);
+                if (children instanceof List) {
+                    for (Object child : (List<?>) children) {
+                        if (!(child instanceof Content)) {
+                            continue;
+                        }
+                        if (node.hasAncestor((Content) child)) {
+                            logger.warn("Taxonomy {} links its ancestor {}, the link is not indexed",
+                                    node.content.getId(), ((Content) child).getId());
+                        } else {
+                            nextLevel.add(new Node((Content) child, node));
+                        }
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+        logger.info("Indexed {} taxonomy paths of {} in {}ms", size, taxonomyRoot.getPath(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Resolves the taxonomy at a path.
+     *
+     * @param taxonomyPath the path of the taxonomy, starting with a top level taxonomy, in the form
+     *                     "/taxonomy/path/1/"
+     * @return the taxonomy at the path, or null if no such taxonomy exists
+     */
+    public Content resolve(String taxonomyPath) {
+        if (taxonomyPath == null || taxonomyPath.isEmpty() || taxonomyPath.equals("[]")) {
+            return null;
+        }
+        List<String> segments = new ArrayList<>(Arrays.asList(taxonomyPath.split("/")));
+        // clear out any empty entries that may exist from splitting the path
+        segments.removeAll(Arrays.asList("", null, " "));
+        Node node = root;
+        for (String segment : segments) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.content;
+    }
+
+    /**
+     * Gets the number of indexed taxonomy paths. A taxonomy with several parents is counted once per path.
+     *
+     * @return the number of indexed taxonomy paths
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A taxonomy of the trie.
+     */
+    private static class Node {
+        private final Content content;
+        private final Node parent;
+        private final Map<String, Node> children = new HashMap<>();
+
+        private Node(Content content, Node parent) {
+            this.content = content;
+            this.parent = parent;
+        }
+
+        /**
+         * Adds a child taxonomy. Of several children with the same name, the first one is indexed.
+         */
+        private void addChild(Node child) {
+            children.putIfAbsent(child.content.getName(), child);
+        }
+
+        /**
+         * Whether a taxonomy is this taxonomy or one of its ancestors.
+         */
+        private boolean hasAncestor(Content taxonomy) {
+            for (Node node = this; node.content != null; node = node.parent) {
+                if (node.content.equals(taxonomy)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
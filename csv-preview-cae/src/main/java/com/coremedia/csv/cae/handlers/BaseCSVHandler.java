@@ -2,13 +2,30 @@ package com.coremedia.csv.cae.handlers;
 
 import com.coremedia.csv.common.CSVConfig;
 import com.coremedia.csv.cae.utils.BaseCSVUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 
 /**
  * Abstract handler that serves as a parent for all CSV file request handlers.
  */
 public abstract class BaseCSVHandler {
 
+  /**
+   * The logger for the CSV handlers.
+   */
+  private static final Logger LOG = LoggerFactory.getLogger(BaseCSVHandler.class);
+
   /**
    * The utility class used to generate the CSV file.
    */
@@ -19,6 +36,68 @@ public abstract class BaseCSVHandler {
    */
   protected CSVConfig CSVConfig;
 
+  /**
+   * The admission control which limits the number of concurrent exports.
+   */
+  protected CSVExportBulkhead exportBulkhead;
+
+  /**
+   * Admits an export and runs it asynchronously on the export executor. If too many exports are running or queued,
+   * the request is rejected with 429 (Too Many Requests) and a Retry-After header.
+   *
+   * @param contentIds    the ids of the content to export
+   * @param templateName  the name of the template to use for the CSV file
+   * @param includeHeader whether to include the header row
+   * @param request       the HTTP request, used for building content beans
+   * @param response      the HTTP response, used for building content beans and writing the csv
+   * @return the asynchronous export, or null if the export has been rejected
+   * @throws IOException if the rejection cannot be sent
+   */
+  protected WebAsyncTask<Void> exportCSV(int[] contentIds, String templateName, boolean includeHeader,
+                                         HttpServletRequest request, HttpServletResponse response)
+          throws IOException {
+    CSVExportBulkhead.Ticket ticket = exportBulkhead.tryAdmit();
+    if (ticket == null) {
+      response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(exportBulkhead.getRetryAfterSeconds()));
+      response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many CSV exports are running, retry later");
+      return null;
+    }
+
+    // Nothing may be written to the response once the request has completed, it is guarded by the ticket
+    HttpServletResponse exportResponse = new CSVExportResponse(response, ticket);
+    // The request is not bound to the export thread by the async dispatch, but link building relies on it
+    RequestAttributes requestAttributes = new ServletRequestAttributes(request, exportResponse);
+    WebAsyncTask<Void> exportTask = new WebAsyncTask<>(exportBulkhead.getExportTimeout(),
+            exportBulkhead.getExecutor(), () -> {
+      if (!ticket.start()) {
+        return null;
+      }
+      RequestAttributes previousAttributes = RequestContextHolder.getRequestAttributes();
+      RequestContextHolder.setRequestAttributes(requestAttributes);
+      try {
+        CSVUtil.generateCSV(contentIds, templateName, includeHeader, request, exportResponse,
+                ticket::isCancelled);
+      } finally {
+        RequestContextHolder.setRequestAttributes(previousAttributes);
+        ticket.release();
+      }
+      return null;
+    });
+    exportTask.onTimeout(() -> {
+      LOG.warn("CSV export of {} content items timed out after {} ms", contentIds.length,
+              exportBulkhead.getExportTimeout());
+      ticket.cancel();
+      return null;
+    });
+    exportTask.onError(() -> {
+      ticket.cancel();
+      return null;
+    });
+    // a running export keeps its slot until it has stopped, it is only released by the task itself
+    exportTask.onCompletion(ticket::cancel);
+    return exportTask;
+  }
+
   /**
    * Sets the CSV Exporter Util. This is done by Spring since all of the spring beans needed are registered in that
    * class as well.
@@ -30,6 +109,16 @@ public abstract class BaseCSVHandler {
     this.CSVUtil = CSVUtil;
   }
 
+  /**
+   * Sets the admission control of the exports.
+   *
+   * @param exportBulkhead the admission control to set
+   */
+  @Required
+  public void setExportBulkhead(CSVExportBulkhead exportBulkhead) {
+    this.exportBulkhead = exportBulkhead;
+  }
+
   /**
    * Sets the CSV configuration handler.
    *
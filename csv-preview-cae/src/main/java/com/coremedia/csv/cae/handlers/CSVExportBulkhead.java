@@ -0,0 +1,282 @@
+package com.coremedia.csv.cae.handlers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control for the CSV exports of the preview CAE. At most {@link #setMaxConcurrentExports(int)} exports run
+ * at the same time on a dedicated executor, so that exports never occupy the threads which render preview pages.
+ * Up to {@link #setMaxQueuedExports(int)} further exports wait for a free slot, any other export is rejected.
+ */
+@ManagedResource(description = "Admission control of the CSV exports of the preview CAE")
+public class CSVExportBulkhead implements InitializingBean, DisposableBean {
+
+  /**
+   * The logger for this class.
+   */
+  private static final Logger LOG = LoggerFactory.getLogger(CSVExportBulkhead.class);
+
+  /**
+   * Maximum number of exports running at the same time.
+   */
+  private int maxConcurrentExports = 2;
+
+  /**
+   * Maximum number of exports waiting for a free slot.
+   */
+  private int maxQueuedExports = 4;
+
+  /**
+   * Number of seconds after which a rejected client should retry.
+   */
+  private int retryAfterSeconds = 30;
+
+  /**
+   * Number of milliseconds after which a running or queued export is cancelled.
+   */
+  private long exportTimeout = 30 * 60 * 1000L;
+
+  /**
+   * Permits of the running and queued exports.
+   */
+  private Semaphore permits;
+
+  /**
+   * The executor which runs the exports.
+   */
+  private ThreadPoolTaskExecutor executor;
+
+  /**
+   * Number of exports currently running.
+   */
+  private final AtomicInteger runningExports = new AtomicInteger();
+
+  /**
+   * Number of exports currently waiting for a free slot.
+   */
+  private final AtomicInteger queuedExports = new AtomicInteger();
+
+  /**
+   * Number of rejected exports.
+   */
+  private final LongAdder rejectedExports = new LongAdder();
+
+  @Override
+  public void afterPropertiesSet() {
+    permits = new Semaphore(maxConcurrentExports + maxQueuedExports);
+    executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(maxConcurrentExports);
+    executor.setMaxPoolSize(maxConcurrentExports);
+    // the permits bound the number of queued exports. The queue is not bounded itself, since the tasks of exports
+    // cancelled while queued stay in it until they are dequeued, and then return right away
+    executor.setThreadNamePrefix("csv-export-");
+    executor.initialize();
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdown();
+  }
+
+  /**
+   * Tries to admit an export.
+   *
+   * @return the ticket of the admitted export, which must be released once the export has finished, or null if the
+   * export is rejected
+   */
+  public Ticket tryAdmit() {
+    if (!permits.tryAcquire()) {
+      rejectedExports.increment();
+      LOG.info("Rejected CSV export, {} exports are running and {} are queued", runningExports.get(),
+              queuedExports.get());
+      return null;
+    }
+    queuedExports.incrementAndGet();
+    return new Ticket();
+  }
+
+  /**
+   * Gets the executor which runs the admitted exports.
+   *
+   * @return the export executor
+   */
+  public AsyncTaskExecutor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Gets the number of seconds after which a rejected client should retry.
+   *
+   * @return the number of seconds for the Retry-After header
+   */
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  /**
+   * Gets the number of milliseconds after which a running or queued export is cancelled.
+   *
+   * @return the export timeout in milliseconds
+   */
+  public long getExportTimeout() {
+    return exportTimeout;
+  }
+
+  @ManagedAttribute(description = "Number of CSV exports currently running")
+  public int getRunningExports() {
+    return runningExports.get();
+  }
+
+  @ManagedAttribute(description = "Number of CSV exports currently waiting for a free slot")
+  public int getQueuedExports() {
+    return queuedExports.get();
+  }
+
+  @ManagedAttribute(description = "Number of rejected CSV exports")
+  public long getRejectedExports() {
+    return rejectedExports.sum();
+  }
+
+  @ManagedAttribute(description = "Maximum number of CSV exports running at the same time")
+  public int getMaxConcurrentExports() {
+    return maxConcurrentExports;
+  }
+
+  @ManagedAttribute(description = "Maximum number of CSV exports waiting for a free slot")
+  public int getMaxQueuedExports() {
+    return maxQueuedExports;
+  }
+
+  /**
+   * Sets the maximum number of exports running at the same time.
+   *
+   * @param maxConcurrentExports the maximum number of running exports
+   */
+  public void setMaxConcurrentExports(int maxConcurrentExports) {
+    if (maxConcurrentExports < 1) {
+      throw new IllegalArgumentException("maxConcurrentExports must be positive");
+    }
+    this.maxConcurrentExports = maxConcurrentExports;
+  }
+
+  /**
+   * Sets the maximum number of exports waiting for a free slot.
+   *
+   * @param maxQueuedExports the maximum number of queued exports
+   */
+  public void setMaxQueuedExports(int maxQueuedExports) {
+    if (maxQueuedExports < 0) {
+      throw new IllegalArgumentException("maxQueuedExports must not be negative");
+    }
+    this.maxQueuedExports = maxQueuedExports;
+  }
+
+  /**
+   * Sets the number of seconds after which a rejected client should retry.
+   *
+   * @param retryAfterSeconds the number of seconds for the Retry-After header
+   */
+  public void setRetryAfterSeconds(int retryAfterSeconds) {
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  /**
+   * Sets the number of milliseconds after which a running or queued export is cancelled.
+   *
+   * @param exportTimeout the export timeout in milliseconds
+   */
+  public void setExportTimeout(long exportTimeout) {
+    this.exportTimeout = exportTimeout;
+  }
+
+  /**
+   * The states of an admitted export.
+   */
+  private enum TicketState {
+    QUEUED, RUNNING, RELEASED
+  }
+
+  /**
+   * The admission of a single export. The permit of the export is released exactly once, either when the export has
+   * finished or when the request completes without the export having run. A running export keeps its permit until it
+   * has stopped, even if its request has timed out.
+   */
+  public class Ticket {
+
+    /**
+     * The state of the export.
+     */
+    private final AtomicReference<TicketState> state = new AtomicReference<>(TicketState.QUEUED);
+
+    /**
+     * Whether the request of the export has completed, timed out or failed, so that a running export should stop.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Marks the export as running.
+     *
+     * @return false if the ticket has already been released, e.g. because the request timed out while queued
+     */
+    public boolean start() {
+      if (state.compareAndSet(TicketState.QUEUED, TicketState.RUNNING)) {
+        queuedExports.decrementAndGet();
+        runningExports.incrementAndGet();
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Cancels the export when its request has completed, timed out or failed. A queued export is released right away,
+     * it will not start anymore. A running export only stops at its next check of {@link #isCancelled()} and is
+     * released by its task. The writes to the response of the export synchronize on the ticket, so once this method
+     * returns, nothing is written to the response anymore.
+     */
+    public void cancel() {
+      synchronized (this) {
+        cancelled = true;
+      }
+      if (state.compareAndSet(TicketState.QUEUED, TicketState.RELEASED)) {
+        queuedExports.decrementAndGet();
+        permits.release();
+      }
+    }
+
+    /**
+     * Checks whether the export has been cancelled.
+     *
+     * @return true if the export should stop
+     */
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * Releases the permit of the export. Called by the task of the export once it has finished. Subsequent calls have
+     * no effect.
+     */
+    public void release() {
+      TicketState previousState = state.getAndSet(TicketState.RELEASED);
+      if (previousState == TicketState.QUEUED) {
+        queuedExports.decrementAndGet();
+      } else if (previousState == TicketState.RUNNING) {
+        runningExports.decrementAndGet();
+      }
+      if (previousState != TicketState.RELEASED) {
+        permits.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package com.coremedia.csv.cae.handlers;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * The response of an asynchronous export. Once the export has been cancelled, its request may already have completed
+ * and the container may have recycled the response, so nothing is written to the response anymore. Writes synchronize
+ * on the ticket of the export, and cancelling the ticket waits for a running write.
+ */
+class CSVExportResponse extends HttpServletResponseWrapper {
+
+  private final CSVExportBulkhead.Ticket ticket;
+
+  private PrintWriter writer;
+
+  CSVExportResponse(HttpServletResponse response, CSVExportBulkhead.Ticket ticket) {
+    super(response);
+    this.ticket = ticket;
+  }
+
+  @Override
+  public void setHeader(String name, String value) {
+    synchronized (ticket) {
+      if (!ticket.isCancelled()) {
+        super.setHeader(name, value);
+      }
+    }
+  }
+
+  @Override
+  public void setCharacterEncoding(String charset) {
+    synchronized (ticket) {
+      if (!ticket.isCancelled()) {
+        super.setCharacterEncoding(charset);
+      }
+    }
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    synchronized (ticket) {
+      checkNotCancelled();
+      if (writer == null) {
+        writer = new PrintWriter(new CancellableWriter(super.getWriter()));
+      }
+      return writer;
+    }
+  }
+
+  private void checkNotCancelled() throws IOException {
+    if (ticket.isCancelled()) {
+      throw new IOException("CSV export has been cancelled, its response is not written anymore");
+    }
+  }
+
+  /**
+   * Writer which stops writing to the response once the export has been cancelled.
+   */
+  private class CancellableWriter extends Writer {
+
+    private final Writer delegate;
+
+    private CancellableWriter(Writer delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      synchronized (ticket) {
+        checkNotCancelled();
+        delegate.write(cbuf, off, len);
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      synchronized (ticket) {
+        checkNotCancelled();
+        delegate.write(str, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (ticket) {
+        checkNotCancelled();
+        delegate.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (ticket) {
+        // the container completes the response of a cancelled export itself
+        if (!ticket.isCancelled()) {
+          delegate.close();
+        }
+      }
+    }
+  }
+}
@@ -2,6 +2,7 @@ package com.coremedia.csv.cae.handlers;
 
 import com.coremedia.objectserver.web.links.Link;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -29,31 +30,32 @@ public class ContentSetCSVHandler extends BaseCSVHandler {
    * @param contentIds A list of content IDs to include in the export
    * @param request    the HTTP Request, used for building content beans
    * @param response   the HTTP Response, used for building content beans and writing CSV
+   * @return the asynchronous export, or null if the export has been rejected
    * @throws IOException if an error occurs writing the CSV
    */
   @PostMapping(value = CSV_LINK_PATTERN,
           produces = "text/csv",
           consumes = "application/json")
   @ResponseBody
-  public void handleRequest(@PathVariable("template") String template,
+  public WebAsyncTask<Void> handleRequest(@PathVariable("template") String template,
                             @RequestBody int[] contentIds,
                             HttpServletRequest request,
                             HttpServletResponse response)
           throws IOException {
     String templateName = URLDecoder.decode(template, "UTF-8");
-    CSVUtil.generateCSV(contentIds, templateName, true, request, response);
+    return exportCSV(contentIds, templateName, true, request, response);
   }
 
   @PostMapping(value = CSV_LINK_NO_HEADER_PATTERN,
           produces = "text/csv",
           consumes = "application/json")
   @ResponseBody
-  public void handleRequestNoHeader(@PathVariable("template") String template,
-                                    @RequestBody int[] contentIds,
-                                    HttpServletRequest request,
-                                    HttpServletResponse response)
+  public WebAsyncTask<Void> handleRequestNoHeader(@PathVariable("template") String template,
+                                                  @RequestBody int[] contentIds,
+                                                  HttpServletRequest request,
+                                                  HttpServletResponse response)
           throws IOException {
     String templateName = URLDecoder.decode(template, "UTF-8");
-    CSVUtil.generateCSV(contentIds, templateName, false, request, response);
+    return exportCSV(contentIds, templateName, false, request, response);
   }
 }
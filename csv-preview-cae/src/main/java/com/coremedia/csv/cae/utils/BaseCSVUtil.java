@@ -1,17 +1,21 @@
 package com.coremedia.csv.cae.utils;
 
 import com.coremedia.blueprint.base.settings.SettingsService;
-import com.coremedia.blueprint.common.contentbeans.CMTaxonomy;
 import com.coremedia.cap.common.CapPropertyDescriptor;
 import com.coremedia.cap.common.CapPropertyDescriptorType;
 import com.coremedia.cap.common.IdHelper;
 import com.coremedia.cap.common.NoSuchPropertyDescriptorException;
 import com.coremedia.cap.content.Content;
 import com.coremedia.cap.content.ContentRepository;
+import com.coremedia.cap.content.ContentType;
 import com.coremedia.cap.content.Version;
 import com.coremedia.cap.content.publication.PublicationService;
 import com.coremedia.cap.struct.Struct;
+import com.coremedia.csv.common.CSVColumnOptions;
 import com.coremedia.csv.common.CSVConfig;
+import com.coremedia.csv.common.CSVDateFormatter;
+import com.coremedia.csv.common.CSVTemplate;
+import com.coremedia.csv.common.CSVTemplateNotFoundException;
 import com.coremedia.objectserver.beans.ContentBean;
 import com.coremedia.objectserver.beans.ContentBeanFactory;
 import com.coremedia.objectserver.web.links.LinkFormatter;
@@ -19,12 +23,20 @@ import com.coremedia.xml.Markup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 import static com.coremedia.csv.common.CSVConstants.*;
 
@@ -44,11 +56,6 @@ public abstract class BaseCSVUtil {
    */
   private static final String ERROR_VALUE = "Error";
 
-  /**
-   * Path separator used when building the taxonomy paths.
-   */
-  private static final String TAXONOMY_PATH_SEPARATOR = "/";
-
   /**
    * Version status when the content has been Approved.
    */
@@ -75,9 +82,14 @@ public abstract class BaseCSVUtil {
   private static final String VERSION_CHECKED_OUT = "Checked Out";
 
   /**
-   * The general date format the reporting tool will use when converting dates into Strings.
+   * Export status of a record which was generated successfully.
+   */
+  private static final String STATUS_SUCCESS = "success";
+
+  /**
+   * Export status of a record which could not be generated.
    */
-  private static final SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd-yyyy HH:mm:ss");
+  private static final String STATUS_FAIL = "fail";
 
   /* ------- Spring-configured values ------- */
   /**
@@ -105,6 +117,23 @@ public abstract class BaseCSVUtil {
    */
   protected CSVConfig CSVConfig;
 
+  /**
+   * The compiled templates by parsed template. The parsed templates are replaced when the reporting settings change,
+   * so the compiled templates of outdated settings are released with them.
+   */
+  private final Map<CSVTemplate, CompiledCSVTemplate> compiledTemplates =
+          Collections.synchronizedMap(new WeakHashMap<>());
+
+  /**
+   * The cache of the rendered taxonomy paths of tag columns.
+   */
+  protected TaxonomyPathCache taxonomyPathCache;
+
+  /**
+   * The cache of the URLs of the URL column. If not set, URLs are built for every record.
+   */
+  protected ContentURLCache contentURLCache;
+
   /**
    * Size of batch for content.
    */
@@ -115,6 +144,27 @@ public abstract class BaseCSVUtil {
    */
   protected String filenamePrefix;
 
+  /**
+   * Executor which renders the records of a batch in parallel. If not set, records are rendered sequentially.
+   */
+  protected ExecutorService renderExecutor;
+
+  /**
+   * Executor which prefetches the upcoming batches while the current batch is rendered. If not set, batches are
+   * prefetched on the request thread.
+   */
+  protected ExecutorService prefetchExecutor;
+
+  /**
+   * Number of batches prefetched ahead of the batch being rendered.
+   */
+  protected int prefetchLookAhead = 1;
+
+  /**
+   * Statistics of the exports, may be null.
+   */
+  protected CSVExportMetrics exportMetrics;
+
   /**
    * Generates a CSV file based on a list of content ids.
    *
@@ -125,36 +175,241 @@ public abstract class BaseCSVUtil {
    * @throws IOException if an error occurs generating the CSV file
    */
   public void generateCSV(int[] contentIds, String template, boolean includeHeader, HttpServletRequest request, HttpServletResponse response) throws IOException {
+    generateCSV(contentIds, template, includeHeader, request, response, () -> false);
+  }
+
+  /**
+   * Generates a CSV file based on a list of content ids. The export stops between batches once it is cancelled, e.g.
+   * because its request has timed out.
+   *
+   * @param template      the name of the template to use for the CSV file
+   * @param includeHeader whether to include headers/header row in response
+   * @param request       the HTTP request, used for building content beans
+   * @param response      the HTTP response, used for building content beans and writing the csv
+   * @param cancelled     checked before each batch, whether the export should stop
+   * @throws IOException if an error occurs generating the CSV file
+   */
+  public void generateCSV(int[] contentIds, String template, boolean includeHeader, HttpServletRequest request,
+                          HttpServletResponse response, BooleanSupplier cancelled) throws IOException {
     CSVWriter csvWriter = null;
+    Deque<Future<CSVBatch>> prefetchedBatches = new ArrayDeque<>();
+    // the batch taken from the prefetched batches, which is still prefetching if the export stops before awaiting it
+    Future<CSVBatch> nextBatch = null;
     try {
-      List<Content> contentList = new ArrayList<>();
-      String[] header = CSVConfig.getCSVHeaders(template);
-      Map<String, String> propertiesMap = CSVConfig.getReportHeadersToContentProperties(template);
-      csvWriter = initializeCSVWriter(createCSVFileName(), header, includeHeader, response);
-      for (int contentId : contentIds) {
-        Content content = contentRepository.getContent(String.valueOf(contentId));
-        if (content != null) {
-          contentList.add(content);
-          if (contentList.size() == contentBatchPrefetchSize) { // if batch size is reached, write a complete batch
-            writeCSV(csvWriter, contentList, header, propertiesMap, request, response);
-            contentList.clear();
+      CSVTemplate csvTemplate = CSVConfig.getTemplate(template);
+      CompiledCSVTemplate compiledTemplate = compileTemplate(csvTemplate);
+      CSVExportContext context = new CSVExportContext(request, response, csvTemplate.getDateFormatter(),
+              compiledTemplate.getHeader().length);
+      csvWriter = initializeCSVWriter(createCSVFileName(), compiledTemplate.getHeader(), includeHeader, response);
+      List<String> header = Arrays.asList(compiledTemplate.getHeader());
+      boolean versionStatusColumn = header.contains(COLUMN_VERSION_STATUS);
+      boolean publicationDateColumn = header.contains(COLUMN_PUBLICATION_DATE);
+      if (exportMetrics != null) {
+        exportMetrics.recordExport();
+      }
+
+      long prefetchWaitNanos = 0;
+      int offset = 0;
+      while (true) {
+        // Keep the look-ahead batches prefetching in the background while the current batch is rendered
+        while (offset < contentIds.length && prefetchedBatches.size() <= prefetchLookAhead) {
+          List<Content> contentList = new ArrayList<>(contentBatchPrefetchSize);
+          offset = collectBatch(contentIds, offset, contentList);
+          if (!contentList.isEmpty()) {
+            prefetchedBatches.add(prefetchBatch(contentList, versionStatusColumn, publicationDateColumn));
           }
         }
+        nextBatch = prefetchedBatches.poll();
+        if (nextBatch == null) {
+          break;
+        }
+        if (cancelled.getAsBoolean()) {
+          LOG.info("CSV export of {} content items cancelled", contentIds.length);
+          return;
+        }
+
+        long waitStart = System.nanoTime();
+        CSVBatch batch = awaitBatch(nextBatch);
+        long waitNanos = System.nanoTime() - waitStart;
+        prefetchWaitNanos += waitNanos;
+        if (exportMetrics != null) {
+          exportMetrics.recordPrefetchWait(waitNanos);
+        }
+
+        context.setPublicationStates(batch.publicationStates);
+        writeCSV(csvWriter, batch.contents, compiledTemplate, context);
       }
-      if (!contentList.isEmpty()) { // finish writing last batch
-        writeCSV(csvWriter, contentList, header, propertiesMap, request, response);
-      }
+      LOG.debug("Exported {} content items, waited {} ms for prefetched batches", contentIds.length,
+              TimeUnit.NANOSECONDS.toMillis(prefetchWaitNanos));
 
-    } catch (NoSuchPropertyDescriptorException e) {
+    } catch (NoSuchPropertyDescriptorException | CSVTemplateNotFoundException e) {
       LOG.error(e.getMessage());
       throw new RuntimeException("Template configuration is missing or invalid for '" + template + "'");
 
     } finally {
+      if (nextBatch != null) {
+        nextBatch.cancel(true);
+      }
+      prefetchedBatches.forEach(prefetchedBatch -> prefetchedBatch.cancel(true));
       closeCSVWriter(csvWriter);
     }
 
   }
 
+  /**
+   * Collects the next batch of content, skipping ids for which no content exists.
+   *
+   * @param contentIds  the ids of all content to export
+   * @param offset      the index of the first id of the batch
+   * @param contentList the list to which the content of the batch is added
+   * @return the index of the first id of the following batch
+   */
+  private int collectBatch(int[] contentIds, int offset, List<Content> contentList) {
+    while (offset < contentIds.length && contentList.size() < contentBatchPrefetchSize) {
+      Content content = contentRepository.getContent(String.valueOf(contentIds[offset++]));
+      if (content != null) {
+        contentList.add(content);
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * Prefetches a batch of content on the prefetch executor, or on the current thread if no executor is set.
+   *
+   * @param contentList           the content of the batch
+   * @param versionStatusColumn   whether to compute the version status of the content
+   * @param publicationDateColumn whether to compute the publication date of the content
+   * @return the future of the prefetched batch
+   */
+  private Future<CSVBatch> prefetchBatch(List<Content> contentList, boolean versionStatusColumn,
+                                         boolean publicationDateColumn) {
+    if (prefetchExecutor == null) {
+      return CompletableFuture.completedFuture(prefetch(contentList, versionStatusColumn, publicationDateColumn));
+    }
+    return prefetchExecutor.submit(() -> prefetch(contentList, versionStatusColumn, publicationDateColumn));
+  }
+
+  /**
+   * Prefetches the properties and, if required by the template, the publication states of a batch of content from
+   * the content server.
+   *
+   * @param contentList           the content of the batch
+   * @param versionStatusColumn   whether to compute the version status of the content
+   * @param publicationDateColumn whether to compute the publication date of the content
+   * @return the prefetched batch
+   */
+  private CSVBatch prefetch(List<Content> contentList, boolean versionStatusColumn, boolean publicationDateColumn) {
+    // Iterating the prefetching collection performs the round-trips, so they are done before the batch is rendered
+    List<Content> contents = new ArrayList<>(contentRepository.withPrefetch(contentList, contentBatchPrefetchSize));
+    PublicationStateTable publicationStates = null;
+    if (versionStatusColumn || publicationDateColumn) {
+      publicationStates = computePublicationStates(contents, versionStatusColumn, publicationDateColumn);
+    }
+    return new CSVBatch(contents, publicationStates);
+  }
+
+  /**
+   * Computes the publication states of a batch of content in a single pass. Only the states required by the template
+   * are computed, and the publication date of content which has never been published is not queried.
+   *
+   * @param contents              the prefetched content of the batch
+   * @param versionStatusColumn   whether to compute the version status of the content
+   * @param publicationDateColumn whether to compute the publication date of the content
+   * @return the publication states of the batch
+   */
+  protected PublicationStateTable computePublicationStates(List<Content> contents, boolean versionStatusColumn,
+                                                           boolean publicationDateColumn) {
+    PublicationService publicationService = contentRepository.getPublicationService();
+    PublicationStateTable publicationStates = new PublicationStateTable(contents.size());
+    for (Content content : contents) {
+      String versionStatus = versionStatusColumn ? getContentVersionStatusString(content) : null;
+      Calendar publicationDate = null;
+      if (publicationDateColumn && !VERSION_CREATED_NEW.equals(versionStatus)) {
+        publicationDate = publicationService.getPublicationDate(content);
+      }
+      publicationStates.put(content, versionStatus, publicationDate);
+    }
+    return publicationStates;
+  }
+
+  /**
+   * Waits for a batch to be prefetched.
+   *
+   * @param prefetchedBatch the future of the prefetched batch
+   * @return the prefetched batch
+   * @throws IOException if the thread is interrupted while waiting for the batch
+   */
+  private CSVBatch awaitBatch(Future<CSVBatch> prefetchedBatch) throws IOException {
+    try {
+      return prefetchedBatch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while prefetching a batch of content");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Failed to prefetch a batch of content", cause);
+    }
+  }
+
+  /**
+   * Compiles the specified template into column extractors. Each header of the template is resolved only once per
+   * content type, instead of once per record. The compiled template is reused by all exports with the same template
+   * until the reporting settings change.
+   *
+   * @param template the template to compile
+   * @return the compiled template
+   */
+  protected CompiledCSVTemplate compileTemplate(CSVTemplate template) {
+    return compiledTemplates.computeIfAbsent(template, csvTemplate -> {
+      // the compiled template must not refer to the parsed one, which is the weak key of the cache
+      String[] header = csvTemplate.getHeaders().toArray(new String[0]);
+      Map<String, String> propertiesMap = csvTemplate.getHeadersToContentProperties();
+      Map<String, CSVColumnOptions> columnOptions = csvTemplate.getColumnOptions();
+      return new CompiledCSVTemplate(header,
+              contentType -> compileColumns(header, propertiesMap, columnOptions, contentType));
+    });
+  }
+
+  /**
+   * Resolves the column extractors of a template for a content type. Columns are resolved in the following order:
+   * the export status, custom fields, content properties and finally metadata.
+   *
+   * @param header        the CSV column headers of the template
+   * @param propertiesMap the map of CSV headers to their corresponding content property names
+   * @param columnOptions the map of CSV headers to the options of their columns
+   * @param contentType   the content type for which to resolve the extractors
+   * @return the column extractors in header order. Entries are null for columns which have no value.
+   */
+  protected CSVColumnExtractor[] compileColumns(String[] header, Map<String, String> propertiesMap,
+                                                Map<String, CSVColumnOptions> columnOptions,
+                                                ContentType contentType) {
+    CSVColumnExtractor[] columnExtractors = new CSVColumnExtractor[header.length];
+    for (int i = 0; i < header.length; i++) {
+      String headerField = header[i];
+      CSVColumnExtractor columnExtractor;
+      if (COLUMN_STATUS.equals(headerField)) {
+        // Records that fail are handled separately, so every generated record is a successful one
+        columnExtractor = (content, context, cell) -> cell.append(STATUS_SUCCESS);
+      } else {
+        columnExtractor = getCustomColumnExtractor(headerField, contentType);
+        if (columnExtractor == null) {
+          String propertyName = propertiesMap.get(headerField);
+          if (propertyName != null) {
+            columnExtractor = getPropertyColumnExtractor(propertyName, contentType, columnOptions.get(headerField));
+          } else {
+            columnExtractor = getMetadataColumnExtractor(headerField);
+          }
+        }
+      }
+      columnExtractors[i] = columnExtractor;
+    }
+    return columnExtractors;
+  }
+
   /**
    * Initializes the CSV writer.
    *
@@ -195,153 +450,196 @@ public abstract class BaseCSVUtil {
   /**
    * Writes a list of content items to a CSV file.
    *
-   * @param csvWriter   the writer which writes content to a CSV
-   * @param contentList the list of the content which will be written to the CSV
-   * @param header      the CSV column headers which will contain the data members of the content written
-   * @param request     the HTTP servlet request sent to the handler
-   * @param response    the HTTP servlet response sent back to the client
+   * @param csvWriter           the writer which writes content to a CSV
+   * @param prefetchContentList the list of the prefetched content which will be written to the CSV
+   * @param compiledTemplate    the compiled template which determines the columns written for the content
+   * @param context             the context of the export
    * @throws IOException if an error occurs writing out the CSV data members
    */
-  protected void writeCSV(CSVWriter csvWriter, List<Content> contentList, String[] header,
-                          Map<String, String> propertiesMap, HttpServletRequest request,
-                          HttpServletResponse response) throws IOException {
+  protected void writeCSV(CSVWriter csvWriter, List<Content> prefetchContentList,
+                          CompiledCSVTemplate compiledTemplate, CSVExportContext context) throws IOException {
+    if (renderExecutor != null && prefetchContentList.size() > 1) {
+      writeCSVRecordsInParallel(csvWriter, prefetchContentList, compiledTemplate, context);
+    } else {
+      // Write out every content as a single record in the CSV
+      for (Content content : prefetchContentList) {
+        try {
+          writeCSVRecord(csvWriter, content, compiledTemplate, context);
+        } catch (Exception e) {
+          LOG.warn("An exception occurred while writing the CSVRecord for " + content, e);
+        }
+      }
+    }
+    // Always flush after each session of writing
+    csvWriter.flush();
+  }
+
+  /**
+   * Generates the records of a batch concurrently on the render executor and writes them to the CSV in the original
+   * order of the content. Every record of the batch is generated into its own row buffer of the export.
+   *
+   * @param csvWriter        the writer which writes content to a CSV
+   * @param contents         the content which will be written to the CSV
+   * @param compiledTemplate the compiled template which determines the columns written for the content
+   * @param context          the context of the export
+   * @throws IOException if the rendering thread is interrupted while waiting for the records
+   */
+  protected void writeCSVRecordsInParallel(CSVWriter csvWriter, Collection<Content> contents,
+                                           CompiledCSVTemplate compiledTemplate, CSVExportContext context)
+          throws IOException {
+    // Link building may rely on the request bound to the current thread, so it is handed over to the render threads
+    RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+    List<Content> contentList = new ArrayList<>(contents);
+    List<Future<CSVRow>> csvRecords = new ArrayList<>(contentList.size());
+    for (int i = 0; i < contentList.size(); i++) {
+      Content content = contentList.get(i);
+      CSVRow row = context.getRow(i);
+      csvRecords.add(renderExecutor.submit(() ->
+              generateCSVRecord(content, compiledTemplate, context, row, requestAttributes)));
+    }
 
-    // Prefetch content based on batch size
-    Collection<Content> prefetchContentList = contentRepository.withPrefetch(contentList, contentBatchPrefetchSize);
-    // Write out every content as a single record in the CSV
-    for (Content content : prefetchContentList) {
+    for (int i = 0; i < contentList.size(); i++) {
+      Content content = contentList.get(i);
       try {
-        writeCSVRecord(csvWriter, content, header, propertiesMap, request, response);
+        csvWriter.write(csvRecords.get(i).get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        csvRecords.forEach(csvRecord -> csvRecord.cancel(true));
+        throw new InterruptedIOException("Interrupted while rendering the CSVRecord for " + content);
+      } catch (ExecutionException e) {
+        LOG.warn("An exception occurred while writing the CSVRecord for " + content, e.getCause());
       } catch (Exception e) {
         LOG.warn("An exception occurred while writing the CSVRecord for " + content, e);
       }
     }
-    // Always flush after each session of writing
-    csvWriter.flush();
+  }
+
+  /**
+   * Generates a single CSV record on a render thread, with the request attributes of the export bound to it.
+   *
+   * @param content           the content from which the CSV record will be generated
+   * @param compiledTemplate  the compiled template which determines which members of the content are parsed and
+   *                          written to the CSV record
+   * @param context           the context of the export
+   * @param row               the row buffer to generate the record into
+   * @param requestAttributes the request attributes of the export request
+   * @return the row buffer with the generated CSV record
+   */
+  private CSVRow generateCSVRecord(Content content, CompiledCSVTemplate compiledTemplate, CSVExportContext context,
+                                   CSVRow row, RequestAttributes requestAttributes) {
+    RequestAttributes previousAttributes = RequestContextHolder.getRequestAttributes();
+    RequestContextHolder.setRequestAttributes(requestAttributes);
+    try {
+      generateCSVRecord(content, compiledTemplate, context, row);
+      return row;
+    } finally {
+      RequestContextHolder.setRequestAttributes(previousAttributes);
+    }
   }
 
   /**
    * Converts a content object into a single CSV record and writes it to the CSV.
    *
-   * @param csvWriter the writer which will write the translated content into the CSV file as a record
-   * @param content   the content from which to generate the CSV record
-   * @param header    the CSV column headers which determine which members of the content are parsed and written to the
-   *                  CSV file
-   * @param request   the HTTP request sent to the handler - used for generating links from the content
-   * @param response  the HTTP response sent back from the handler - used for generating links from the content
+   * @param csvWriter        the writer which will write the translated content into the CSV file as a record
+   * @param content          the content from which to generate the CSV record
+   * @param compiledTemplate the compiled template which determines which members of the content are parsed and
+   *                         written to the CSV file
+   * @param context          the context of the export
    * @throws IOException if an exception occurs while writing the CSV record
    */
-  protected void writeCSVRecord(CSVWriter csvWriter, Content content, String[] header,
-                                Map<String, String> propertiesMap, HttpServletRequest request,
-                                HttpServletResponse response) throws IOException {
-    // Generate the record
-    Map<String, String> csvRecord = generateCSVRecord(content, header, propertiesMap, request, response);
+  protected void writeCSVRecord(CSVWriter csvWriter, Content content, CompiledCSVTemplate compiledTemplate,
+                                CSVExportContext context) throws IOException {
+    // Generate the record into the reused row buffer
+    CSVRow row = context.getRow(0);
+    generateCSVRecord(content, compiledTemplate, context, row);
 
     // Write the record to the content
-    csvWriter.write(csvRecord, header);
+    csvWriter.write(row);
   }
 
   /**
    * Generates a single CSV record of a specified content object.
    *
-   * @param content  the content from which the CSV record will be generated
-   * @param header   the CSV column headers which determine which members of the content are parsed and written to the
-   *                 CSV record
-   * @param request  the HTTP request sent to the handler - used for generating links from the content
-   * @param response the HTTP response sent back from the handler - used for generating links from the content
-   * @return a map with the keys representing the column headers, and the values representing the data from the
-   * content pertaining to their respective header
+   * @param content          the content from which the CSV record will be generated
+   * @param compiledTemplate the compiled template which determines which members of the content are parsed and
+   *                         written to the CSV record
+   * @param context          the context of the export
+   * @param row              the row buffer to generate the record into. It is cleared before the record is generated.
    */
-  protected Map<String, String> generateCSVRecord(Content content, String[] header, Map<String, String> propertiesMap,
-                                                  HttpServletRequest request, HttpServletResponse response) {
-    // Create the map
-    List<String> headerList = Arrays.asList(header);
-    Map<String, String> csvRecord = new HashMap<>();
-
+  protected void generateCSVRecord(Content content, CompiledCSVTemplate compiledTemplate, CSVExportContext context,
+                                   CSVRow row) {
+    row.clear();
     try {
-      // Add static (Metadata) properties
-      populateContentMetadataFields(csvRecord, content, headerList, request, response);
-
-      // Add dynamic (Content) properties
-      populateContentPropertyFields(csvRecord, content, headerList, propertiesMap);
-
-      // Add custom fields (None by default)
-      populateCustomPropertyFields(csvRecord, content, headerList);
-
-      // Update record status to success if all fields were successfully set
-      csvRecord.put(COLUMN_STATUS, "success");
+      CSVColumnExtractor[] columnExtractors = compiledTemplate.getColumnExtractors(content.getType());
+      for (int i = 0; i < columnExtractors.length; i++) {
+        if (columnExtractors[i] != null) {
+          columnExtractors[i].extract(content, context, row.cell(i));
+        }
+      }
     } catch (Exception e) {
       LOG.warn(e.toString());
-      handleBadRecord(content, csvRecord);
+      handleBadRecord(content, compiledTemplate, row);
     }
-    return csvRecord;
   }
 
   /**
-   * Populates the CSV record with metadata from the specified content. Metadata must be treated differently than
-   * content properties, as metadata are static, none editable properties of the content. Each metadata property must
-   * be specifically requested, and cannot be done generically.
+   * Gets the extractor for a metadata column. Metadata must be treated differently than content properties, as
+   * metadata are static, none editable properties of the content. Each metadata property must be specifically
+   * requested, and cannot be done generically.
    *
-   * @param csvRecord  the CSV record to which to populate metadata
-   * @param content    the content from which the metadata will be requested and set into the CSV record
-   * @param headerList the list of headers which determines which metadata is added to the CSV record and which
-   *                   columns will be present in the CSV
-   * @param request    the HTTP request sent to the handler - used for generating links from the content
-   * @param response   the HTTP response sent back from the handler - used for generating links from the content
+   * @param headerField the header of the column
+   * @return the extractor for the metadata column, or null if the header does not denote a metadata column
    */
-  protected void populateContentMetadataFields(Map<String, String> csvRecord, Content content,
-                                               List<String> headerList, HttpServletRequest request,
-                                               HttpServletResponse response) {
-    ContentBean bean = contentBeanFactory.createBeanFor(content, ContentBean.class);
-    String metadataProperty;
-    if (headerList.contains(COLUMN_ID)) {
-      metadataProperty = getContentIdString(content);
-      csvRecord.put(COLUMN_ID, metadataProperty);
+  protected CSVColumnExtractor getMetadataColumnExtractor(String headerField) {
+    if (COLUMN_ID.equals(headerField)) {
+      return (content, context, cell) -> cell.append(IdHelper.parseContentId(content.getId()));
     }
-    if (headerList.contains(COLUMN_NAME)) {
-      metadataProperty = content.getName();
-      csvRecord.put(COLUMN_NAME, metadataProperty);
+    if (COLUMN_NAME.equals(headerField)) {
+      return (content, context, cell) -> cell.append(content.getName());
     }
-    if (headerList.contains(COLUMN_PATH)) {
-      metadataProperty = content.getPath();
-      csvRecord.put(COLUMN_PATH, metadataProperty);
+    if (COLUMN_PATH.equals(headerField)) {
+      return CSVColumnExtractor.of((content, context) -> content.getPath());
     }
-    if (headerList.contains(COLUMN_URL)) {
-      metadataProperty = getContentURLString(bean, request, response);
-      csvRecord.put(COLUMN_URL, metadataProperty);
+    if (COLUMN_URL.equals(headerField)) {
+      return CSVColumnExtractor.of(this::getContentURLString);
     }
-    if (headerList.contains(COLUMN_TYPE)) {
-      metadataProperty = content.getType().getName();
-      csvRecord.put(COLUMN_TYPE, metadataProperty);
+    if (COLUMN_TYPE.equals(headerField)) {
+      return (content, context, cell) -> cell.append(content.getType().getName());
     }
-    if (headerList.contains(COLUMN_CREATION_DATE)) {
-      Calendar creationDate = content.getCreationDate();
-      metadataProperty = creationDate != null ? dateFormat.format(creationDate.getTime()) : "";
-      csvRecord.put(COLUMN_CREATION_DATE, metadataProperty);
+    if (COLUMN_CREATION_DATE.equals(headerField)) {
+      return (content, context, cell) -> context.getDateFormatter().formatTo(content.getCreationDate(), cell);
     }
-    if (headerList.contains(COLUMN_CREATED_BY)) {
-      metadataProperty = content.getCreator().getName();
-      csvRecord.put(COLUMN_CREATED_BY, metadataProperty);
+    if (COLUMN_CREATED_BY.equals(headerField)) {
+      return (content, context, cell) -> cell.append(content.getCreator().getName());
     }
-    if (headerList.contains(COLUMN_LAST_MODIFICATION_DATE)) {
-      Calendar lastModDate = content.getModificationDate();
-      metadataProperty = lastModDate != null ? dateFormat.format(lastModDate.getTime()) : "";
-      csvRecord.put(COLUMN_LAST_MODIFICATION_DATE, metadataProperty);
+    if (COLUMN_LAST_MODIFICATION_DATE.equals(headerField)) {
+      return (content, context, cell) -> context.getDateFormatter().formatTo(content.getModificationDate(), cell);
     }
-    if (headerList.contains(COLUMN_LAST_MODIFIED_BY)) {
-      metadataProperty = content.getModifier().getName();
-      csvRecord.put(COLUMN_LAST_MODIFIED_BY, metadataProperty);
+    if (COLUMN_LAST_MODIFIED_BY.equals(headerField)) {
+      return (content, context, cell) -> cell.append(content.getModifier().getName());
     }
-    if (headerList.contains(COLUMN_VERSION_STATUS)) {
-      metadataProperty = getContentVersionStatusString(content);
-      csvRecord.put(COLUMN_VERSION_STATUS, metadataProperty);
+    if (COLUMN_VERSION_STATUS.equals(headerField)) {
+      return CSVColumnExtractor.of((content, context) -> {
+        PublicationStateTable publicationStates = context.getPublicationStates();
+        if (publicationStates != null && publicationStates.contains(content)) {
+          return publicationStates.getVersionStatus(content);
+        }
+        return getContentVersionStatusString(content);
+      });
     }
-    if (headerList.contains(COLUMN_PUBLICATION_DATE)) {
-      PublicationService publicationService = contentRepository.getPublicationService();
-      Calendar publicationDate = publicationService.getPublicationDate(content);
-      String creationDateStr = publicationDate != null ? dateFormat.format(publicationDate.getTime()) : "";
-      csvRecord.put(COLUMN_PUBLICATION_DATE, creationDateStr);
+    if (COLUMN_PUBLICATION_DATE.equals(headerField)) {
+      return (content, context, cell) -> {
+        PublicationStateTable publicationStates = context.getPublicationStates();
+        Calendar publicationDate;
+        if (publicationStates != null && publicationStates.contains(content)) {
+          publicationDate = publicationStates.getPublicationDate(content);
+        } else {
+          publicationDate = contentRepository.getPublicationService().getPublicationDate(content);
+        }
+        context.getDateFormatter().formatTo(publicationDate, cell);
+      };
     }
+    return null;
   }
 
   /**
@@ -355,6 +653,22 @@ public abstract class BaseCSVUtil {
     return Integer.toString(id);
   }
 
+  /**
+   * Gets the URL of the specified content, from the URL cache if one is configured.
+   *
+   * @param content the content from which to generate the URL
+   * @param context the context of the export
+   * @return a String representing the URL of the specified content
+   */
+  protected String getContentURLString(Content content, CSVExportContext context) {
+    if (contentURLCache == null) {
+      return getContentURLString(contentBeanFactory.createBeanFor(content, ContentBean.class), context.getRequest(),
+              context.getResponse());
+    }
+    return contentURLCache.getURL(content, context.getRequest(), () -> getContentURLString(
+            contentBeanFactory.createBeanFor(content, ContentBean.class), context.getRequest(), context.getResponse()));
+  }
+
   /**
    * Gets the URL of the specified content bean.
    *
@@ -385,68 +699,92 @@ public abstract class BaseCSVUtil {
    * @return a String representing the version status of the content
    */
   protected String getContentVersionStatusString(Content content) {
-    PublicationService publicationService = contentRepository.getPublicationService();
-    String status = "";
     if (content.isCheckedOut()) {
-      status = VERSION_CHECKED_OUT;
-    } else {
-      Version version = content.getWorkingVersion();
-      if (version == null) {
-        version = content.getCheckedInVersion();
-      }
-      if (version != null) {
-        status = VERSION_CHECKED_IN;
-        if (publicationService.isApproved(version)) {
-          status = VERSION_APPROVED;
-        }
-        if (publicationService.isPublished(version)) {
-          status = VERSION_PUBLISHED;
-        }
-      }
-
-      if (publicationService.isNew(content)) {
-        status = VERSION_CREATED_NEW;
-      }
+      return VERSION_CHECKED_OUT;
+    }
+    PublicationService publicationService = contentRepository.getPublicationService();
+    // New content has never been published, so its versions do not need to be inspected
+    if (publicationService.isNew(content)) {
+      return VERSION_CREATED_NEW;
+    }
+    Version version = content.getWorkingVersion();
+    if (version == null) {
+      version = content.getCheckedInVersion();
+    }
+    if (version == null) {
+      return "";
+    }
+    // Published takes precedence over approved, so approval only needs to be checked for unpublished versions
+    if (publicationService.isPublished(version)) {
+      return VERSION_PUBLISHED;
+    }
+    if (publicationService.isApproved(version)) {
+      return VERSION_APPROVED;
     }
-    return status;
+    return VERSION_CHECKED_IN;
   }
 
   /**
-   * Populates the CSV record with properties from the specified content. Properties are editable values of content
-   * which are stored in a map of the content itself. Because of this, properties can be handled more generically
-   * and dynamically when accessing them.
+   * Gets the extractor for a content property column. Properties are editable values of content which are stored in a
+   * map of the content itself. Because of this, properties can be handled more generically and dynamically when
+   * accessing them. The property descriptor is resolved once for the content type, so that records only need to read
+   * and convert the property value.
    *
-   * @param csvRecord  the CSV record to which to populate the properties of the content
-   * @param content    the content from which the property values will be parsed
-   * @param headerList the list of headers which determines which metadata is added to the CSV record and which
-   *                   columns will be present in the CSV
+   * @param propertyName  the name of the property of which to get the value from the content
+   * @param contentType   the type of the content for which records will be generated
+   * @param columnOptions the options of the column, may be null
+   * @return the extractor for the property column. If the content type does not contain a property descriptor, the
+   * extractor returns an empty String.
    */
-  protected void populateContentPropertyFields(Map<String, String> csvRecord, Content content,
-                                               List<String> headerList, Map<String, String> propertiesMap) {
-    // Iterate through all of the headers to parse through all of the specified properties of the content
-    for (String headerField : headerList) {
-      String propertyName = propertiesMap.get(headerField);
-      Object property;
-      if (propertyName != null) {
-        property = evaluateContentProperty(content, propertyName);
-        csvRecord.put(headerField, property.toString());
+  protected CSVColumnExtractor getPropertyColumnExtractor(String propertyName, ContentType contentType,
+                                                          CSVColumnOptions columnOptions) {
+    // If there is no property descriptor - there is no need to warn or error, as different content types will have
+    // different properties, and a single content object may not contain all of the requested properties
+    CapPropertyDescriptor propertyDescriptor = contentType.getDescriptor(propertyName);
+    if (propertyDescriptor == null) {
+      return (content, context, cell) -> {
+      };
+    }
+
+    CapPropertyDescriptorType type = propertyDescriptor.getType();
+    switch (type) {
+      case LINK:
+        if (PROPERTY_SUBJECT_TAGS.equals(propertyName)) {
+          return (content, context, cell) -> appendList(evaluateTagProperty(content, propertyName), cell);
+        }
+        return (content, context, cell) -> appendList(evaluateAssociatedProperty(content, propertyName), cell);
+      case MARKUP: {
+        MarkupCSVSerializer serializer = MarkupCSVSerializer.forColumn(columnOptions);
+        return (content, context, cell) -> appendMarkupProperty(content, propertyName, serializer, cell);
       }
+      case DATE:
+        return (content, context, cell) -> {
+          Object property = getContentProperty(content, propertyName);
+          if (property instanceof Calendar) {
+            context.getDateFormatter().formatTo((Calendar) property, cell);
+          } else {
+            cell.append(property);
+          }
+        };
+      case STRUCT: {
+        MarkupCSVSerializer serializer = MarkupCSVSerializer.forColumn(columnOptions);
+        return (content, context, cell) -> appendStructProperty(content, propertyName, serializer, cell);
+      }
+      default:
+        return (content, context, cell) -> cell.append(getContentProperty(content, propertyName));
     }
   }
 
   /**
-   * Populates the CSV record with custom properties from the specified content. Custom properties are not innate
-   * properties of content and involve some calculation based on other content properties to derive them. This
-   * functionality is left up to subclasses (which is determined based on the request) to implement as there are no
-   * custom properties to be calculated by default.
+   * Gets the extractor for a custom column. Custom properties are not innate properties of content and involve some
+   * calculation based on other content properties to derive them. This functionality is left up to subclasses (which
+   * is determined based on the request) to implement as there are no custom properties to be calculated by default.
    *
-   * @param csvRecord  the CSV record to which to populate the properties of the content
-   * @param content    the content from which the property values will be parsed
-   * @param headerList the list of headers which determines which metadata is added to the CSV record and which
-   *                   columns will be present in the CSV
+   * @param headerField the header of the column
+   * @param contentType the type of the content for which records will be generated
+   * @return the extractor for the custom column, or null if the header does not denote a custom column
    */
-  protected abstract void populateCustomPropertyFields(Map<String, String> csvRecord, Content content,
-                                                       List<String> headerList);
+  protected abstract CSVColumnExtractor getCustomColumnExtractor(String headerField, ContentType contentType);
 
   /**
    * Gets the property value of the specified property name from the specified content.
@@ -468,78 +806,19 @@ public abstract class BaseCSVUtil {
    *
    * @param content      the content from which to determine the specified local setting variable's value
    * @param propertyName the name/path of the struct variable.
-   * @return the String value of a Struct object after being converted to Markup. If there is no Struct content
-   * property, returns empty String.
+   * @param serializer   the serializer which converts the struct for the column
+   * @param cell         the cell to append the String value of the Struct object to, after being converted to Markup.
+   *                     If there is no Struct content property, nothing is appended.
    */
-  protected Object evaluateStructProperty(Content content, String propertyName) {
+  protected void appendStructProperty(Content content, String propertyName, MarkupCSVSerializer serializer,
+                                      StringBuilder cell) {
     Object property = getContentProperty(content, propertyName);
     // If the value doesn't exist - convert to empty String
     if (property instanceof Struct) {
-      property = ((Struct) property).toMarkup();
-      property = sanitizeMarkupToString((Markup) property);
-    }
-    return property;
-  }
-
-  /**
-   * Determines the value of the specified content property.
-   *
-   * @param content      the content from which to determine the value of the specified property
-   * @param propertyName the name of the property of which to get the value from the specified content
-   * @return the value of the property in the content. If the content does not contain a property descriptor, then
-   * returns an empty String.
-   */
-  protected Object evaluateContentProperty(Content content, String propertyName) {
-
-    // Set the default value of the property to empty String
-    Object property = "";
-
-    // If we have the property, make sure we parse it correctly. Else, skip the property. If there is no property
-    // descriptor - there is no need to warn or error, as different content types will have different properties,
-    // and a single content object may not contain all of the requested properties
-    CapPropertyDescriptor propertyDescriptor = content.getType().getDescriptor(propertyName);
-
-    if (propertyDescriptor != null) {
-      CapPropertyDescriptorType type = propertyDescriptor.getType();
-      switch (type) {
-        case LINK:
-          property = evaluateLinkProperty(content, propertyName);
-          break;
-        case MARKUP:
-          property = evaluateMarkupProperty(content, propertyName);
-          break;
-        case DATE:
-          property = getContentProperty(content, propertyName);
-          if (property instanceof Calendar) {
-            property = dateFormat.format(((Calendar) property).getTime());
-          }
-          break;
-        case STRUCT:
-          property = evaluateStructProperty(content, propertyName);
-          break;
-        default:
-          property = getContentProperty(content, propertyName);
-      }
-    }
-    return property;
-  }
-
-  /**
-   * Properly evaluates a Link property. Contains special handling cases if the link is for the Subject Taxonomy
-   * property.
-   *
-   * @param content      the content from which to evaluate the link property
-   * @param propertyName the name of the link property
-   * @return the value of the specified link property
-   */
-  private Object evaluateLinkProperty(Content content, String propertyName) {
-    Object property;
-    if (PROPERTY_SUBJECT_TAGS.equals(propertyName)) {
-      property = evaluateTagProperty(content, propertyName);
+      serializer.serializeTo(((Struct) property).toMarkup(), cell);
     } else {
-      property = evaluateAssociatedProperty(content, propertyName);
+      cell.append(property);
     }
-    return property;
   }
 
   /**
@@ -553,19 +832,9 @@ public abstract class BaseCSVUtil {
     List<Content> tags = ((List<Content>) content.get(propertyName));
     List<String> tagIds = new ArrayList<>();
     for (Content tag : tags) {
-      ContentBean tagBean = contentBeanFactory.createBeanFor(tag, CMTaxonomy.class);
-      // TODO: Update checks here as they are no longer required with updates to createBeanFor()
-      if (tagBean instanceof CMTaxonomy) {
-        List<? extends CMTaxonomy> taxonomyPathList = ((CMTaxonomy) tagBean).getTaxonomyPathList();
-        StringBuilder prefixedCategoryPath = new StringBuilder();
-
-        // append category hierarchy with content names as segments
-        for (CMTaxonomy taxonomyPathSegment : taxonomyPathList) {
-          prefixedCategoryPath.append(TAXONOMY_PATH_SEPARATOR).append(
-                  taxonomyPathSegment.getContent().getName());
-        }
-        prefixedCategoryPath.append(TAXONOMY_PATH_SEPARATOR);
-        tagIds.add(prefixedCategoryPath.toString());
+      String taxonomyPath = tag != null ? taxonomyPathCache.getTaxonomyPath(tag) : null;
+      if (taxonomyPath != null) {
+        tagIds.add(taxonomyPath);
       } else {
         LOG.error(String.format("One of the documents inside of the tag list, %s, in content with Id, %s, was" +
                 " null or not a tag.", propertyName, getContentIdString(content)));
@@ -595,32 +864,38 @@ public abstract class BaseCSVUtil {
    *
    * @param content      the content from which to evaluate the Markup property
    * @param propertyName the name of the Markup property
-   * @return the value of the specified Markup property
+   * @param serializer   the serializer which converts the markup for the column, stripping line breaks so that the
+   *                     CSV does not break when imported
+   * @param cell         the cell to append the value of the specified Markup property to
    */
-  protected Object evaluateMarkupProperty(Content content, String propertyName) {
+  protected void appendMarkupProperty(Content content, String propertyName, MarkupCSVSerializer serializer,
+                                      StringBuilder cell) {
     Object property;
     property = getContentProperty(content, propertyName);
 
     // We check if its a Markup object here to validate that we got the property.
     if (property instanceof Markup) {
-      property = sanitizeMarkupToString((Markup) property);
+      serializer.serializeTo((Markup) property, cell);
+    } else {
+      cell.append(property);
     }
-    return property;
   }
 
   /**
-   * Takes a Markup object and sanitizes the String so it does not break CSV parsing
+   * Appends a list of values to a cell, formatted like {@link List#toString()}.
    *
-   * @param markup the markup to sanitize & convert to String
-   * @return the String value of the specified Markup, sanitized for CSV parsing.
+   * @param values the values to append
+   * @param cell   the cell to append the values to
    */
-  private String sanitizeMarkupToString(Markup markup) {
-    String markupString = markup.toString();
-
-    // Remove carriage returns so that our CSV doesn't error when imported
-    markupString = markupString.replaceAll("\n", "");
-    markupString = markupString.replaceAll("\r", "");
-    return markupString;
+  private static void appendList(List<String> values, StringBuilder cell) {
+    cell.append('[');
+    for (int i = 0; i < values.size(); i++) {
+      if (i > 0) {
+        cell.append(", ");
+      }
+      cell.append(values.get(i));
+    }
+    cell.append(']');
   }
 
 
@@ -630,19 +905,28 @@ public abstract class BaseCSVUtil {
    * @return a string that will represent the CSV filename
    */
   protected String createCSVFileName() {
-    return filenamePrefix + dateFormat.format(new Date()) + ".csv";
+    StringBuilder csvFileName = new StringBuilder(filenamePrefix);
+    CSVDateFormatter.getDefault().formatTo(Calendar.getInstance(), csvFileName);
+    return csvFileName.append(".csv").toString();
   }
 
   /**
-   * Scrubs csvRecord and sets the content id and status to fail.
+   * Scrubs the row and sets the content id and status to fail.
    *
-   * @param content   the content on which the failure occurred
-   * @param csvRecord the record for the failed content
+   * @param content          the content on which the failure occurred
+   * @param compiledTemplate the compiled template which determines the columns of the row
+   * @param row              the row of the failed content
    */
-  private void handleBadRecord(Content content, Map<String, String> csvRecord) {
-    csvRecord.clear();
-    csvRecord.put(COLUMN_ID, getContentIdString(content));
-    csvRecord.put(COLUMN_STATUS, "fail");
+  private void handleBadRecord(Content content, CompiledCSVTemplate compiledTemplate, CSVRow row) {
+    row.clear();
+    int idColumn = compiledTemplate.getColumnIndex(COLUMN_ID);
+    if (idColumn >= 0) {
+      row.set(idColumn, getContentIdString(content));
+    }
+    int statusColumn = compiledTemplate.getColumnIndex(COLUMN_STATUS);
+    if (statusColumn >= 0) {
+      row.set(statusColumn, STATUS_FAIL);
+    }
   }
 
   /* ------- Spring-configured value setters ------- */
@@ -697,6 +981,25 @@ public abstract class BaseCSVUtil {
     this.CSVConfig = CSVConfig;
   }
 
+  /**
+   * Sets the cache of the rendered taxonomy paths.
+   *
+   * @param taxonomyPathCache the taxonomy path cache to set
+   */
+  @Required
+  public void setTaxonomyPathCache(TaxonomyPathCache taxonomyPathCache) {
+    this.taxonomyPathCache = taxonomyPathCache;
+  }
+
+  /**
+   * Sets the cache of the URLs of the URL column.
+   *
+   * @param contentURLCache the URL cache to set, or null to build URLs for every record
+   */
+  public void setContentURLCache(ContentURLCache contentURLCache) {
+    this.contentURLCache = contentURLCache;
+  }
+
   /**
    * Sets the file name prefix for generated files.
    *
@@ -716,4 +1019,72 @@ public abstract class BaseCSVUtil {
   public void setContentBatchPrefetchSize(int contentBatchPrefetchSize) {
     this.contentBatchPrefetchSize = contentBatchPrefetchSize;
   }
+
+  /**
+   * Sets the executor which renders the records of a batch in parallel. The parallelism of the executor bounds the
+   * number of records rendered at the same time across all exports.
+   *
+   * @param renderExecutor the executor to render records with, or null to render records sequentially
+   */
+  public void setRenderExecutor(ExecutorService renderExecutor) {
+    this.renderExecutor = renderExecutor;
+  }
+
+  /**
+   * Sets the executor which prefetches the upcoming batches while the current batch is rendered.
+   *
+   * @param prefetchExecutor the executor to prefetch batches with, or null to prefetch on the request thread
+   */
+  public void setPrefetchExecutor(ExecutorService prefetchExecutor) {
+    this.prefetchExecutor = prefetchExecutor;
+  }
+
+  /**
+   * Sets the number of batches prefetched ahead of the batch being rendered. Together with the batch size, this bounds
+   * the amount of prefetched content held in memory per export.
+   *
+   * @param prefetchLookAhead the number of batches to prefetch ahead
+   */
+  public void setPrefetchLookAhead(int prefetchLookAhead) {
+    if (prefetchLookAhead < 0) {
+      throw new IllegalArgumentException("prefetchLookAhead must not be negative");
+    }
+    this.prefetchLookAhead = prefetchLookAhead;
+  }
+
+  /**
+   * Sets the statistics of the exports.
+   *
+   * @param exportMetrics the statistics to record the exports in
+   */
+  public void setExportMetrics(CSVExportMetrics exportMetrics) {
+    this.exportMetrics = exportMetrics;
+  }
+
+  /**
+   * A prefetched batch of content.
+   */
+  private static class CSVBatch {
+
+    /**
+     * The prefetched content of the batch.
+     */
+    private final List<Content> contents;
+
+    /**
+     * The publication states of the batch, or null if the template does not require them.
+     */
+    private final PublicationStateTable publicationStates;
+
+    /**
+     * Constructor.
+     *
+     * @param contents          the prefetched content of the batch
+     * @param publicationStates the publication states of the batch, may be null
+     */
+    private CSVBatch(List<Content> contents, PublicationStateTable publicationStates) {
+      this.contents = contents;
+      this.publicationStates = publicationStates;
+    }
+  }
 }
@@ -0,0 +1,37 @@
+package com.coremedia.csv.cae.utils;
+
+import com.coremedia.cap.content.Content;
+
+import java.util.function.BiFunction;
+
+/**
+ * Extracts the value of a single CSV column from a content item. Extractors are resolved once per template and content
+ * type (see {@link CompiledCSVTemplate}) and then applied to every record of that type.
+ */
+@FunctionalInterface
+public interface CSVColumnExtractor {
+
+  /**
+   * Extracts the column value from the specified content and appends it to the cell of the column.
+   *
+   * @param content the content from which the column value will be extracted
+   * @param context the context of the export the record belongs to
+   * @param cell    the buffer of the cell to append the value to
+   */
+  void extract(Content content, CSVExportContext context, StringBuilder cell);
+
+  /**
+   * Creates an extractor from a function which computes the column value as a String.
+   *
+   * @param valueFunction computes the value of the column for a content, may return null for an empty value
+   * @return the column extractor
+   */
+  static CSVColumnExtractor of(BiFunction<Content, CSVExportContext, String> valueFunction) {
+    return (content, context, cell) -> {
+      String value = valueFunction.apply(content, context);
+      if (value != null) {
+        cell.append(value);
+      }
+    };
+  }
+}
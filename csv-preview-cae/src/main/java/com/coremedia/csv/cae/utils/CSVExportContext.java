@@ -0,0 +1,119 @@
+package com.coremedia.csv.cae.utils;
+
+import com.coremedia.csv.common.CSVDateFormatter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the state of a single CSV export request which column extractors may need while generating records.
+ */
+public class CSVExportContext {
+
+  /**
+   * The HTTP request sent to the handler - used for generating links from the content.
+   */
+  private final HttpServletRequest request;
+
+  /**
+   * The HTTP response sent back from the handler - used for generating links from the content.
+   */
+  private final HttpServletResponse response;
+
+  /**
+   * The formatter for the dates of the export, as configured for its template.
+   */
+  private final CSVDateFormatter dateFormatter;
+
+  /**
+   * The publication states of the batch currently being rendered, or null if they have not been computed.
+   */
+  private volatile PublicationStateTable publicationStates;
+
+  /**
+   * The number of columns of the export.
+   */
+  private final int columnCount;
+
+  /**
+   * The row buffers of the export, reused for every batch. Only accessed by the thread which writes the CSV.
+   */
+  private final List<CSVRow> rows = new ArrayList<>();
+
+  /**
+   * Constructor.
+   *
+   * @param request       the HTTP request sent to the handler
+   * @param response      the HTTP response sent back from the handler
+   * @param dateFormatter the formatter for the dates of the export
+   * @param columnCount   the number of columns of the export
+   */
+  public CSVExportContext(HttpServletRequest request, HttpServletResponse response, CSVDateFormatter dateFormatter,
+                          int columnCount) {
+    this.request = request;
+    this.response = response;
+    this.dateFormatter = dateFormatter;
+    this.columnCount = columnCount;
+  }
+
+  /**
+   * Gets the HTTP request sent to the handler.
+   *
+   * @return the HTTP request
+   */
+  public HttpServletRequest getRequest() {
+    return request;
+  }
+
+  /**
+   * Gets the HTTP response sent back from the handler.
+   *
+   * @return the HTTP response
+   */
+  public HttpServletResponse getResponse() {
+    return response;
+  }
+
+  /**
+   * Gets the formatter for the dates of the export.
+   *
+   * @return the date formatter
+   */
+  public CSVDateFormatter getDateFormatter() {
+    return dateFormatter;
+  }
+
+  /**
+   * Gets the publication states of the batch currently being rendered.
+   *
+   * @return the publication states, or null if they have not been computed
+   */
+  public PublicationStateTable getPublicationStates() {
+    return publicationStates;
+  }
+
+  /**
+   * Sets the publication states of the batch about to be rendered.
+   *
+   * @param publicationStates the publication states, or null if they have not been computed
+   */
+  public void setPublicationStates(PublicationStateTable publicationStates) {
+    this.publicationStates = publicationStates;
+  }
+
+  /**
+   * Gets a row buffer of the export. The rows are pooled per export, so a batch rendered in parallel uses one row per
+   * record, and the rows are reused by the following batches. The row is not cleared.
+   *
+   * @param index the index of the row within the batch
+   * @return the row buffer
+   */
+  public CSVRow getRow(int index) {
+    while (rows.size() <= index) {
+      rows.add(new CSVRow(columnCount));
+    }
+    return rows.get(index);
+  }
+}
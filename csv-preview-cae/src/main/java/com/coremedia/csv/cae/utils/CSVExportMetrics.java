@@ -0,0 +1,79 @@
+package com.coremedia.csv.cae.utils;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects statistics of the CSV exports of the preview CAE.
+ */
+@ManagedResource(description = "Statistics of the CSV exports of the preview CAE")
+public class CSVExportMetrics {
+
+  /**
+   * Number of exports started.
+   */
+  private final LongAdder exports = new LongAdder();
+
+  /**
+   * Number of batches rendered.
+   */
+  private final LongAdder batches = new LongAdder();
+
+  /**
+   * Total time the render loop waited for batches to be prefetched, in nanoseconds.
+   */
+  private final LongAdder prefetchWaitNanos = new LongAdder();
+
+  /**
+   * Longest time the render loop waited for a single batch to be prefetched, in nanoseconds.
+   */
+  private final LongAccumulator maxPrefetchWaitNanos = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Records the start of an export.
+   */
+  public void recordExport() {
+    exports.increment();
+  }
+
+  /**
+   * Records the time the render loop waited for a batch to be prefetched.
+   *
+   * @param waitNanos the wait time in nanoseconds
+   */
+  public void recordPrefetchWait(long waitNanos) {
+    batches.increment();
+    prefetchWaitNanos.add(waitNanos);
+    maxPrefetchWaitNanos.accumulate(waitNanos);
+  }
+
+  @ManagedAttribute(description = "Number of exports started")
+  public long getExportCount() {
+    return exports.sum();
+  }
+
+  @ManagedAttribute(description = "Number of batches rendered")
+  public long getBatchCount() {
+    return batches.sum();
+  }
+
+  @ManagedAttribute(description = "Total time the render loop waited for prefetched batches, in milliseconds")
+  public long getPrefetchWaitTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(prefetchWaitNanos.sum());
+  }
+
+  @ManagedAttribute(description = "Average time the render loop waited for a prefetched batch, in milliseconds")
+  public double getAveragePrefetchWaitTimeMillis() {
+    long batchCount = batches.sum();
+    return batchCount == 0 ? 0 : (double) prefetchWaitNanos.sum() / batchCount / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @ManagedAttribute(description = "Longest time the render loop waited for a prefetched batch, in milliseconds")
+  public long getMaxPrefetchWaitTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxPrefetchWaitNanos.get());
+  }
+}
@@ -0,0 +1,95 @@
+package com.coremedia.csv.cae.utils;
+
+/**
+ * A reusable, fixed-size buffer for a single CSV record. Column extractors append the value of their column to the
+ * cell of the column index, and the {@link CSVWriter} writes the cells without creating intermediate Strings. Rows
+ * are cleared and reused for the following records, so their cell buffers only grow to the largest value written.
+ */
+public class CSVRow {
+
+  /**
+   * Cell buffers which have grown beyond this capacity are released when the row is cleared, so that a single huge
+   * value does not stay referenced for the rest of the export.
+   */
+  private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+  /**
+   * The cell buffers, in column order.
+   */
+  private final StringBuilder[] cells;
+
+  /**
+   * Whether a value has been written into the cell of a column. Cells without a value are written as null values.
+   */
+  private final boolean[] present;
+
+  /**
+   * Constructor.
+   *
+   * @param columnCount the number of columns of the row
+   */
+  public CSVRow(int columnCount) {
+    cells = new StringBuilder[columnCount];
+    present = new boolean[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      cells[i] = new StringBuilder();
+    }
+  }
+
+  /**
+   * Gets the number of columns of the row.
+   *
+   * @return the number of columns
+   */
+  public int size() {
+    return cells.length;
+  }
+
+  /**
+   * Gets the buffer of a cell to write its value into. The cell is marked as having a value, even if nothing is
+   * appended to it.
+   *
+   * @param column the column index
+   * @return the buffer of the cell
+   */
+  public StringBuilder cell(int column) {
+    present[column] = true;
+    return cells[column];
+  }
+
+  /**
+   * Replaces the value of a cell.
+   *
+   * @param column the column index
+   * @param value  the value of the cell
+   */
+  public void set(int column, CharSequence value) {
+    StringBuilder cell = cell(column);
+    cell.setLength(0);
+    cell.append(value);
+  }
+
+  /**
+   * Gets the value of a cell for reading.
+   *
+   * @param column the column index
+   * @return the value of the cell, or null if no value has been written
+   */
+  public CharSequence get(int column) {
+    return present[column] ? cells[column] : null;
+  }
+
+  /**
+   * Clears all cells, so that the row can be reused for another record.
+   */
+  public void clear() {
+    for (int i = 0; i < cells.length; i++) {
+      if (cells[i].capacity() > MAX_RETAINED_CAPACITY) {
+        cells[i] = new StringBuilder();
+      } else {
+        cells[i].setLength(0);
+      }
+      present[i] = false;
+    }
+  }
+}
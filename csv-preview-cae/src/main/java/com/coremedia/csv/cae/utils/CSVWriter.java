@@ -1,36 +1,202 @@
 package com.coremedia.csv.cae.utils;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
-
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+/**
+ * Writes CSV records in the Excel format. Values are quoted and escaped directly into a pooled character buffer,
+ * following the minimal quoting rules of commons-csv's {@code CSVFormat.EXCEL}, so the output is the one of a
+ * {@code CSVPrinter}. Null values are written like empty values, except that a null first value is quoted like an
+ * empty one, so that a record is never read back as an empty line.
+ */
 public class CSVWriter {
-  private final CSVPrinter csvPrinter;
 
-  public CSVWriter(Writer writer) throws IOException {
-    csvPrinter = new CSVPrinter(writer, CSVFormat.EXCEL);
+  /**
+   * Size of the character buffers.
+   */
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Character buffers of closed writers, reused by new writers.
+   */
+  private static final BlockingQueue<char[]> BUFFER_POOL = new ArrayBlockingQueue<>(16);
+
+  /**
+   * Characters at the start of a value up to which the value is quoted, including the comment character.
+   */
+  private static final char QUOTE_START_LIMIT = '#';
+
+  private final Writer writer;
+
+  private char[] buffer;
+
+  private int position;
+
+  public CSVWriter(Writer writer) {
+    this.writer = writer;
+    char[] pooledBuffer = BUFFER_POOL.poll();
+    buffer = pooledBuffer != null ? pooledBuffer : new char[BUFFER_SIZE];
   }
 
   public void writeHeader(String[] header) throws IOException {
-    csvPrinter.printRecord(Arrays.asList(header));
+    for (int i = 0; i < header.length; i++) {
+      if (i > 0) {
+        append(',');
+      }
+      writeValue(header[i], i == 0);
+    }
+    endRecord();
+  }
+
+  public void write(CSVRow row) throws IOException {
+    for (int i = 0; i < row.size(); i++) {
+      if (i > 0) {
+        append(',');
+      }
+      writeValue(row.get(i), i == 0);
+    }
+    endRecord();
   }
 
   public void flush() throws IOException {
-    csvPrinter.flush();
+    flushBuffer();
+    writer.flush();
   }
 
   public void close() throws IOException {
-    csvPrinter.close();
+    if (buffer == null) {
+      return;
+    }
+    try {
+      flushBuffer();
+      writer.close();
+    } finally {
+      BUFFER_POOL.offer(buffer);
+      buffer = null;
+    }
+  }
+
+  /**
+   * Writes a value, quoting it if required.
+   *
+   * @param value       the value to write, may be null
+   * @param firstColumn whether the value is the first of the record
+   * @throws IOException if the buffer cannot be flushed
+   */
+  private void writeValue(CharSequence value, boolean firstColumn) throws IOException {
+    if (requiresQuotes(value, firstColumn)) {
+      writeQuoted(value == null ? "" : value);
+    } else if (value != null) {
+      append(value, value.length());
+    }
+  }
+
+  /**
+   * Writes a quoted value, escaping its quotes.
+   *
+   * @param value the value to write
+   * @throws IOException if the buffer cannot be flushed
+   */
+  private void writeQuoted(CharSequence value) throws IOException {
+    int length = value.length();
+    append('"');
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c == '"') {
+        append('"');
+      }
+      append(c);
+    }
+    append('"');
+  }
+
+  /**
+   * Determines whether a value must be quoted.
+   *
+   * @param value       the value to write, may be null
+   * @param firstColumn whether the value is the first of the record
+   * @return true if the value must be quoted
+   */
+  private static boolean requiresQuotes(CharSequence value, boolean firstColumn) {
+    int length = value == null ? 0 : value.length();
+    if (length == 0) {
+      // an empty first value would be read as an empty line
+      return firstColumn;
+    }
+    if (value.charAt(0) <= QUOTE_START_LIMIT || value.charAt(length - 1) <= ' ') {
+      return true;
+    }
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c == '\n' || c == '\r' || c == '"' || c == ',') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Ends the current record.
+   *
+   * @throws IOException if the buffer cannot be flushed
+   */
+  private void endRecord() throws IOException {
+    append('\r');
+    append('\n');
+  }
+
+  /**
+   * Appends a character to the buffer.
+   *
+   * @param c the character to append
+   * @throws IOException if the buffer cannot be flushed
+   */
+  private void append(char c) throws IOException {
+    if (position == buffer.length) {
+      flushBuffer();
+    }
+    buffer[position++] = c;
+  }
+
+  /**
+   * Appends a sequence of characters to the buffer.
+   *
+   * @param value  the characters to append
+   * @param length the number of characters to append
+   * @throws IOException if the buffer cannot be flushed
+   */
+  private void append(CharSequence value, int length) throws IOException {
+    int offset = 0;
+    while (offset < length) {
+      if (position == buffer.length) {
+        flushBuffer();
+      }
+      int count = Math.min(length - offset, buffer.length - position);
+      if (value instanceof StringBuilder) {
+        ((StringBuilder) value).getChars(offset, offset + count, buffer, position);
+      } else if (value instanceof String) {
+        ((String) value).getChars(offset, offset + count, buffer, position);
+      } else {
+        for (int i = 0; i < count; i++) {
+          buffer[position + i] = value.charAt(offset + i);
+        }
+      }
+      position += count;
+      offset += count;
+    }
   }
 
-  public void write(Map<String, String> csvRecord, String[] header) throws IOException {
-    List<String> values = Arrays.stream(header).map(csvRecord::get).collect(Collectors.toList());
-    csvPrinter.printRecord(values);
+  /**
+   * Writes the buffered characters to the underlying writer.
+   *
+   * @throws IOException if the characters cannot be written
+   */
+  private void flushBuffer() throws IOException {
+    if (position > 0) {
+      writer.write(buffer, 0, position);
+      position = 0;
+    }
   }
 }
@@ -0,0 +1,81 @@
+package com.coremedia.csv.cae.utils;
+
+import com.coremedia.cap.content.ContentType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A CSV template whose headers have been resolved into column extractors. The extractors are compiled once per content
+ * type on first use and then reused for every record of that type, so that no header or property descriptor lookups
+ * are necessary while records are generated.
+ */
+public class CompiledCSVTemplate {
+
+  /**
+   * The CSV column headers of the template.
+   */
+  private final String[] header;
+
+  /**
+   * The column indexes by header.
+   */
+  private final Map<String, Integer> columnIndexes = new HashMap<>();
+
+  /**
+   * Compiles the column extractors of the template for a content type.
+   */
+  private final Function<ContentType, CSVColumnExtractor[]> columnCompiler;
+
+  /**
+   * The compiled column extractors by content type, in header order.
+   */
+  private final Map<ContentType, CSVColumnExtractor[]> columnExtractorsByType = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param header         the CSV column headers of the template
+   * @param columnCompiler compiles the column extractors of the template for a content type. The returned array must
+   *                       have one entry per header, entries may be null for columns which have no value.
+   */
+  public CompiledCSVTemplate(String[] header, Function<ContentType, CSVColumnExtractor[]> columnCompiler) {
+    this.header = header;
+    this.columnCompiler = columnCompiler;
+    for (int i = header.length - 1; i >= 0; i--) {
+      columnIndexes.put(header[i], i);
+    }
+  }
+
+  /**
+   * Gets the CSV column headers of the template.
+   *
+   * @return the CSV column headers
+   */
+  public String[] getHeader() {
+    return header;
+  }
+
+  /**
+   * Gets the index of the first column with the specified header.
+   *
+   * @param headerField the header of the column
+   * @return the index of the column, or -1 if the template has no such column
+   */
+  public int getColumnIndex(String headerField) {
+    Integer columnIndex = columnIndexes.get(headerField);
+    return columnIndex != null ? columnIndex : -1;
+  }
+
+  /**
+   * Gets the column extractors for the specified content type, compiling them on first use.
+   *
+   * @param contentType the type of the content for which records will be generated
+   * @return the column extractors in header order. Entries are null for columns which have no value for the type.
+   */
+  public CSVColumnExtractor[] getColumnExtractors(ContentType contentType) {
+    return columnExtractorsByType.computeIfAbsent(contentType, columnCompiler);
+  }
+}
@@ -3,9 +3,7 @@ package com.coremedia.csv.cae.utils;
 import com.coremedia.blueprint.common.contentbeans.CMLinkable;
 import com.coremedia.blueprint.common.contentbeans.CMViewtype;
 import com.coremedia.cap.content.Content;
-
-import java.util.List;
-import java.util.Map;
+import com.coremedia.cap.content.ContentType;
 
 /**
  * Utility for generating a CSV based on a set of content items.
@@ -13,27 +11,30 @@ import java.util.Map;
 public class ContentSetCSVUtil extends BaseCSVUtil {
 
   /**
-   * If additional custom report/property fields are required, feel free to extend this class, overwrite populateCustomPropertyFields
-   * and replace the contentSetCSVUtil bean.
+   * If additional custom report/property fields are required, feel free to extend this class, overwrite
+   * getCustomColumnExtractor and replace the contentSetCSVUtil bean.
    *
-   * @param csvRecord  the CSV record to which to populate the properties of the content
-   * @param content    the content from which the property values will be parsed
-   * @param headerList the list of headers which determines which metadata is added to the CSV record and which
-   *                   columns will be present in the CSV
+   * @param headerField the header of the column
+   * @param contentType the type of the content for which records will be generated
+   * @return the extractor for the custom column, or null if the header does not denote a custom column
    */
   @Override
-  protected void populateCustomPropertyFields(Map<String, String> csvRecord, Content content,
-                                              List<String> headerList) {
+  protected CSVColumnExtractor getCustomColumnExtractor(String headerField, ContentType contentType) {
     // custom property to include Layout Variant name
-    if(headerList.contains("LayoutVariant")) {
-      String layoutProperty = "";
-      if(content.getType().isSubtypeOf(CMLinkable.NAME)) {
+    if("LayoutVariant".equals(headerField)) {
+      if(!contentType.isSubtypeOf(CMLinkable.NAME)) {
+        return (content, context, cell) -> {
+        };
+      }
+      return CSVColumnExtractor.of((content, context) -> {
+        String layoutProperty = "";
         Content viewtype = content.getLink(CMLinkable.VIEWTYPE);
         if(viewtype != null)
           layoutProperty = viewtype.getString(CMViewtype.LAYOUT);
-      }
-      csvRecord.put("LayoutVariant", layoutProperty);
+        return layoutProperty;
+      });
     }
+    return null;
   }
 
 }
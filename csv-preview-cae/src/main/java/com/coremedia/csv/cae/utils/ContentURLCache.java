@@ -0,0 +1,384 @@
+package com.coremedia.csv.cae.utils;
+
+import com.coremedia.cap.content.Content;
+import com.coremedia.cap.content.ContentRepository;
+import com.coremedia.cap.content.ContentType;
+import com.coremedia.cap.content.events.ContentEvent;
+import com.coremedia.cap.content.events.ContentRepositoryListenerBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of the URLs of the URL column. URLs are cached per content, modification date and the parts of the
+ * request that links are built from, so repeated and overlapping exports reuse them. The entries are indexed by
+ * content, so that the entries of a changed content are evicted without scanning the cache, and only URLs of that
+ * content which are computed concurrently are discarded. A change of the navigation invalidates all entries, they are
+ * recomputed on their next access. The cache therefore pays off where the navigation changes rarely compared to the
+ * exports, it is not enabled by default.
+ */
+@ManagedResource(description = "Cache of the content URLs rendered by the CSV exports")
+public class ContentURLCache implements InitializingBean, DisposableBean {
+
+  /**
+   * The logger for this class.
+   */
+  private static final Logger LOG = LoggerFactory.getLogger(ContentURLCache.class);
+
+  /**
+   * Names of the content types whose changes may affect the URLs of arbitrary content.
+   */
+  private static final String[] NAVIGATION_TYPES = {"CMNavigation", "CMSite"};
+
+  /**
+   * The content repository whose changes invalidate the cache.
+   */
+  private ContentRepository contentRepository;
+
+  /**
+   * Maximum number of cached URLs.
+   */
+  private int maxSize = 10000;
+
+  /**
+   * The cached URLs by key, in access order. Guarded by itself.
+   */
+  private final LinkedHashMap<CacheKey, CachedURL> urls = new LinkedHashMap<CacheKey, CachedURL>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<CacheKey, CachedURL> eldest) {
+      if (size() > maxSize) {
+        unindex(eldest.getKey());
+        return true;
+      }
+      return false;
+    }
+  };
+
+  /**
+   * The cached keys and the URL computations of each content, by content id. Contents without cached keys or running
+   * computations are removed. Guarded by {@link #urls}.
+   */
+  private final Map<String, ContentEntries> entriesByContent = new HashMap<>();
+
+  /**
+   * Incremented on every change of the navigation, which invalidates the URLs cached before. Guarded by
+   * {@link #urls}.
+   */
+  private long navigationGeneration;
+
+  /**
+   * Number of URLs served from the cache.
+   */
+  private final LongAdder hits = new LongAdder();
+
+  /**
+   * Number of URLs which had to be computed.
+   */
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Listener which evicts the URLs of changed content.
+   */
+  private final ContentRepositoryListenerBase invalidationListener = new ContentRepositoryListenerBase() {
+    @Override
+    protected void handleContentEvent(ContentEvent event) {
+      Content content = event.getContent();
+      if (content != null) {
+        if (isNavigation(content.getType())) {
+          LOG.debug("Invalidating all URLs after a change of {}", content.getId());
+          invalidateNavigation();
+        }
+        invalidate(content.getId());
+      }
+    }
+  };
+
+  @Override
+  public void afterPropertiesSet() {
+    contentRepository.addContentRepositoryListener(invalidationListener);
+  }
+
+  @Override
+  public void destroy() {
+    contentRepository.removeContentRepositoryListener(invalidationListener);
+  }
+
+  /**
+   * Gets the URL of a content, computing it if it is not cached. Empty URLs are not cached, as they denote a failure
+   * to build the link.
+   *
+   * @param content     the content of which to get the URL
+   * @param request     the HTTP request the URL is built for
+   * @param urlSupplier computes the URL if it is not cached
+   * @return the URL of the content
+   */
+  public String getURL(Content content, HttpServletRequest request, Supplier<String> urlSupplier) {
+    CacheKey key = new CacheKey(content, request);
+    ContentEntries entries;
+    long computeGeneration;
+    long computeNavigationGeneration;
+    synchronized (urls) {
+      CachedURL cached = urls.get(key);
+      if (cached != null && cached.navigationGeneration == navigationGeneration) {
+        hits.increment();
+        return cached.url;
+      }
+      entries = entriesByContent.computeIfAbsent(key.contentId, contentId -> new ContentEntries());
+      entries.computations++;
+      computeGeneration = entries.generation;
+      computeNavigationGeneration = navigationGeneration;
+    }
+    misses.increment();
+
+    String url = null;
+    try {
+      url = urlSupplier.get();
+      return url;
+    } finally {
+      synchronized (urls) {
+        entries.computations--;
+        // not cached if the content or the navigation has changed while the URL was computed
+        if (url != null && !url.isEmpty() && computeGeneration == entries.generation
+                && computeNavigationGeneration == navigationGeneration) {
+          entries.keys.add(key);
+          urls.put(key, new CachedURL(url, navigationGeneration));
+        }
+        removeIfUnused(key.contentId, entries);
+      }
+    }
+  }
+
+  /**
+   * Determines whether changes of content of a type may affect the URLs of arbitrary content.
+   *
+   * @param contentType the content type
+   * @return true if the content type is a navigation type
+   */
+  private boolean isNavigation(ContentType contentType) {
+    for (String navigationType : NAVIGATION_TYPES) {
+      if (contentType.isSubtypeOf(navigationType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Evicts the URLs of a content, and discards the URLs of the content which are computed concurrently.
+   *
+   * @param contentId the id of the changed content
+   */
+  private void invalidate(String contentId) {
+    synchronized (urls) {
+      ContentEntries entries = entriesByContent.get(contentId);
+      if (entries != null) {
+        entries.generation++;
+        for (CacheKey key : entries.keys) {
+          urls.remove(key);
+        }
+        entries.keys.clear();
+        removeIfUnused(contentId, entries);
+      }
+    }
+  }
+
+  /**
+   * Invalidates all URLs after a change of the navigation. The entries are not evicted right away, but recomputed on
+   * their next access or evicted as least recently used.
+   */
+  private void invalidateNavigation() {
+    synchronized (urls) {
+      navigationGeneration++;
+    }
+  }
+
+  /**
+   * Removes an evicted key from the index. Called with the lock of {@link #urls} held.
+   */
+  private void unindex(CacheKey key) {
+    ContentEntries entries = entriesByContent.get(key.contentId);
+    if (entries != null) {
+      entries.keys.remove(key);
+      removeIfUnused(key.contentId, entries);
+    }
+  }
+
+  /**
+   * Removes the entries of a content from the index if it has neither cached keys nor running computations. Called
+   * with the lock of {@link #urls} held.
+   */
+  private void removeIfUnused(String contentId, ContentEntries entries) {
+    if (entries.computations == 0 && entries.keys.isEmpty()) {
+      entriesByContent.remove(contentId, entries);
+    }
+  }
+
+  /**
+   * Evicts all URLs.
+   */
+  @ManagedOperation(description = "Evicts all cached URLs")
+  public void clear() {
+    synchronized (urls) {
+      navigationGeneration++;
+      urls.clear();
+      entriesByContent.values().removeIf(entries -> {
+        entries.generation++;
+        entries.keys.clear();
+        return entries.computations == 0;
+      });
+    }
+  }
+
+  @ManagedAttribute(description = "Number of cached URLs")
+  public int getSize() {
+    synchronized (urls) {
+      return urls.size();
+    }
+  }
+
+  @ManagedAttribute(description = "Maximum number of cached URLs")
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  @ManagedAttribute(description = "Number of URLs served from the cache")
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  @ManagedAttribute(description = "Number of URLs which had to be computed")
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  @ManagedAttribute(description = "Ratio of URLs served from the cache")
+  public double getHitRate() {
+    long hitCount = hits.sum();
+    long requestCount = hitCount + misses.sum();
+    return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+  }
+
+  /**
+   * Sets the content repository.
+   *
+   * @param contentRepository the content repository to set
+   */
+  @Required
+  public void setContentRepository(ContentRepository contentRepository) {
+    this.contentRepository = contentRepository;
+  }
+
+  /**
+   * Sets the maximum number of cached URLs.
+   *
+   * @param maxSize the maximum number of cached URLs
+   */
+  public void setMaxSize(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * The cached keys and the running URL computations of a content.
+   */
+  private static final class ContentEntries {
+
+    /**
+     * Incremented on every change of the content, so that URLs computed concurrently with a change are not cached.
+     */
+    private long generation;
+
+    /**
+     * The number of running URL computations of the content.
+     */
+    private int computations;
+
+    /**
+     * The cached keys of the content.
+     */
+    private final Set<CacheKey> keys = new HashSet<>();
+  }
+
+  /**
+   * A cached URL and the navigation generation it has been computed in.
+   */
+  private static final class CachedURL {
+    private final String url;
+    private final long navigationGeneration;
+
+    private CachedURL(String url, long navigationGeneration) {
+      this.url = url;
+      this.navigationGeneration = navigationGeneration;
+    }
+  }
+
+  /**
+   * Identifies a URL by the state of the content and the request it is built from.
+   */
+  private static final class CacheKey {
+
+    /**
+     * The id of the content.
+     */
+    private final String contentId;
+
+    /**
+     * The modification date of the content, in milliseconds.
+     */
+    private final long modificationTime;
+
+    /**
+     * The scheme, host, port and context path of the request.
+     */
+    private final String requestContext;
+
+    /**
+     * Constructor.
+     *
+     * @param content the content of which the URL is built
+     * @param request the HTTP request the URL is built for
+     */
+    private CacheKey(Content content, HttpServletRequest request) {
+      Calendar modificationDate = content.getModificationDate();
+      contentId = content.getId();
+      modificationTime = modificationDate != null ? modificationDate.getTimeInMillis() : 0;
+      requestContext = request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort()
+              + request.getContextPath();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) o;
+      return modificationTime == other.modificationTime && contentId.equals(other.contentId)
+              && requestContext.equals(other.requestContext);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * contentId.hashCode() + Long.hashCode(modificationTime)) + requestContext.hashCode();
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package com.coremedia.csv.cae.utils;
+
+import com.coremedia.csv.common.CSVColumnOptions;
+import com.coremedia.xml.Markup;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Serializes markup and struct values into a CSV cell. The markup is streamed into the cell buffer while carriage
+ * returns and line feeds are stripped, so no intermediate copies of the markup are created. Serializers are immutable
+ * and may be shared between threads.
+ */
+public class MarkupCSVSerializer {
+
+  /**
+   * Serializer which writes the complete XML of markup values.
+   */
+  public static final MarkupCSVSerializer DEFAULT = new MarkupCSVSerializer(CSVColumnOptions.DEFAULT);
+
+  /**
+   * Elements after which a separating space is written in plain text mode.
+   */
+  private static final Set<String> BLOCK_ELEMENTS = new HashSet<>(Arrays.asList(
+          "p", "div", "li", "td", "th", "tr", "br", "pre", "blockquote", "h1", "h2", "h3", "h4", "h5", "h6",
+          "StringProperty", "IntProperty", "BooleanProperty", "LinkProperty", "String", "Int", "Link"));
+
+  /**
+   * Whether to write only the text nodes of the markup.
+   */
+  private final boolean plainText;
+
+  /**
+   * The maximum number of characters written into a cell, or {@link CSVColumnOptions#UNLIMITED}.
+   */
+  private final int maxLength;
+
+  /**
+   * Constructor.
+   *
+   * @param columnOptions the options of the column into which markup is serialized
+   */
+  public MarkupCSVSerializer(CSVColumnOptions columnOptions) {
+    this.plainText = columnOptions.isPlainText();
+    this.maxLength = columnOptions.getMaxLength();
+  }
+
+  /**
+   * Gets the serializer for a column.
+   *
+   * @param columnOptions the options of the column, may be null
+   * @return the serializer for the column
+   */
+  public static MarkupCSVSerializer forColumn(CSVColumnOptions columnOptions) {
+    return columnOptions != null ? new MarkupCSVSerializer(columnOptions) : DEFAULT;
+  }
+
+  /**
+   * Serializes a markup value into a cell buffer.
+   *
+   * @param markup the markup to serialize
+   * @param buffer the buffer of the cell to append the markup to
+   */
+  public void serializeTo(Markup markup, StringBuilder buffer) {
+    CellWriter cellWriter = new CellWriter(buffer, plainText ? ' ' : -1,
+            maxLength == CSVColumnOptions.UNLIMITED ? Integer.MAX_VALUE : buffer.length() + maxLength);
+    try {
+      if (plainText) {
+        markup.writeOn(new PlainTextHandler(cellWriter));
+      } else {
+        markup.writeOn(cellWriter);
+      }
+    } catch (CellFullException e) {
+      // the maximum length has been reached, the rest of the markup is skipped
+    } catch (SAXException e) {
+      if (!(e.getException() instanceof CellFullException)) {
+        throw new IllegalStateException("Failed to serialize markup", e);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to serialize markup", e);
+    }
+    if (plainText) {
+      cellWriter.trim();
+    }
+  }
+
+  /**
+   * Thrown when the maximum length of a cell has been reached, to stop serializing the markup.
+   */
+  private static class CellFullException extends RuntimeException {
+    private CellFullException() {
+      super(null, null, false, false);
+    }
+  }
+
+  /**
+   * Appends characters to a cell buffer, replacing line breaks and stopping at the maximum length of the cell.
+   */
+  private static class CellWriter extends Writer {
+
+    /**
+     * The buffer of the cell.
+     */
+    private final StringBuilder buffer;
+
+    /**
+     * The length of the buffer before the cell was written.
+     */
+    private final int start;
+
+    /**
+     * The character which replaces line breaks, or -1 to strip them.
+     */
+    private final int lineBreakReplacement;
+
+    /**
+     * The length of the buffer at which writing stops.
+     */
+    private final int limit;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer               the buffer of the cell
+     * @param lineBreakReplacement the character which replaces line breaks, or -1 to strip them
+     * @param limit                the length of the buffer at which writing stops
+     */
+    private CellWriter(StringBuilder buffer, int lineBreakReplacement, int limit) {
+      this.buffer = buffer;
+      this.start = buffer.length();
+      this.lineBreakReplacement = lineBreakReplacement;
+      this.limit = limit;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+      for (int i = offset; i < offset + length; i++) {
+        write(chars[i]);
+      }
+    }
+
+    @Override
+    public void write(int c) {
+      if (buffer.length() >= limit) {
+        throw new CellFullException();
+      }
+      if (c == '\n' || c == '\r') {
+        if (lineBreakReplacement >= 0) {
+          separate();
+        }
+      } else {
+        buffer.append((char) c);
+      }
+    }
+
+    /**
+     * Writes the line break replacement, unless the cell is empty or already ends with it.
+     */
+    private void separate() {
+      int length = buffer.length();
+      if (length > start && buffer.charAt(length - 1) != lineBreakReplacement && length < limit) {
+        buffer.append((char) lineBreakReplacement);
+      }
+    }
+
+    /**
+     * Removes a trailing line break replacement from the cell.
+     */
+    private void trim() {
+      int length = buffer.length();
+      if (length > start && buffer.charAt(length - 1) == lineBreakReplacement) {
+        buffer.setLength(length - 1);
+      }
+    }
+
+    @Override
+    public void flush() {
+      // writes directly into the buffer
+    }
+
+    @Override
+    public void close() {
+      // writes directly into the buffer
+    }
+  }
+
+  /**
+   * Writes the text nodes of markup, separating block elements by a space.
+   */
+  private static class PlainTextHandler extends DefaultHandler {
+
+    /**
+     * The writer of the cell.
+     */
+    private final CellWriter cellWriter;
+
+    /**
+     * Constructor.
+     *
+     * @param cellWriter the writer of the cell
+     */
+    private PlainTextHandler(CellWriter cellWriter) {
+      this.cellWriter = cellWriter;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      cellWriter.write(ch, start, length);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      if (BLOCK_ELEMENTS.contains(localName)) {
+        cellWriter.separate();
+      }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      if (BLOCK_ELEMENTS.contains(localName)) {
+        cellWriter.separate();
+      }
+    }
+  }
+}
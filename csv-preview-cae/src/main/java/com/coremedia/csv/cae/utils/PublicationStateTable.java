@@ -0,0 +1,98 @@
+package com.coremedia.csv.cae.utils;
+
+import com.coremedia.cap.content.Content;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The publication states of the content of a single batch, computed in one pass before the batch is rendered so that
+ * the VersionStatus and PublicationDate columns do not query the publication service per record.
+ */
+public class PublicationStateTable {
+
+  /**
+   * The publication states by content.
+   */
+  private final Map<Content, PublicationState> states;
+
+  /**
+   * Constructor.
+   *
+   * @param expectedSize the number of content in the batch
+   */
+  public PublicationStateTable(int expectedSize) {
+    states = new HashMap<>(expectedSize * 4 / 3 + 1);
+  }
+
+  /**
+   * Adds the publication state of a content.
+   *
+   * @param content         the content
+   * @param versionStatus   the version status of the content, may be null if it was not computed
+   * @param publicationDate the publication date of the content, may be null
+   */
+  public void put(Content content, String versionStatus, Calendar publicationDate) {
+    states.put(content, new PublicationState(versionStatus, publicationDate));
+  }
+
+  /**
+   * Determines whether the table holds the publication state of a content.
+   *
+   * @param content the content
+   * @return true if the state of the content has been computed
+   */
+  public boolean contains(Content content) {
+    return states.containsKey(content);
+  }
+
+  /**
+   * Gets the version status of a content.
+   *
+   * @param content the content
+   * @return the version status, or null if it has not been computed
+   */
+  public String getVersionStatus(Content content) {
+    PublicationState state = states.get(content);
+    return state != null ? state.versionStatus : null;
+  }
+
+  /**
+   * Gets the publication date of a content.
+   *
+   * @param content the content
+   * @return the publication date, or null if the content has not been published or the date has not been computed
+   */
+  public Calendar getPublicationDate(Content content) {
+    PublicationState state = states.get(content);
+    return state != null ? state.publicationDate : null;
+  }
+
+  /**
+   * The publication state of a single content.
+   */
+  private static class PublicationState {
+
+    /**
+     * The version status.
+     */
+    private final String versionStatus;
+
+    /**
+     * The publication date.
+     */
+    private final Calendar publicationDate;
+
+    /**
+     * Constructor.
+     *
+     * @param versionStatus   the version status
+     * @param publicationDate the publication date
+     */
+    private PublicationState(String versionStatus, Calendar publicationDate) {
+      this.versionStatus = versionStatus;
+      this.publicationDate = publicationDate;
+    }
+  }
+}
@@ -0,0 +1,288 @@
+package com.coremedia.csv.cae.utils;
+
+import com.coremedia.blueprint.common.contentbeans.CMTaxonomy;
+import com.coremedia.cap.content.Content;
+import com.coremedia.cap.content.ContentRepository;
+import com.coremedia.cap.content.events.ContentEvent;
+import com.coremedia.cap.content.events.ContentRepositoryListenerBase;
+import com.coremedia.objectserver.beans.ContentBean;
+import com.coremedia.objectserver.beans.ContentBeanFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of the rendered paths of taxonomies, such as "/Subjects/Sports/Football/". Entries are evicted
+ * when the taxonomy or one of its ancestors changes.
+ */
+@ManagedResource(description = "Cache of the taxonomy paths rendered by the CSV exports")
+public class TaxonomyPathCache implements InitializingBean, DisposableBean {
+
+  /**
+   * The logger for this class.
+   */
+  private static final Logger LOG = LoggerFactory.getLogger(TaxonomyPathCache.class);
+
+  /**
+   * Path separator used when building the taxonomy paths.
+   */
+  private static final String TAXONOMY_PATH_SEPARATOR = "/";
+
+  /**
+   * Name of the content type of taxonomies.
+   */
+  private static final String TAXONOMY_TYPE = "CMTaxonomy";
+
+  /**
+   * The content repository whose changes invalidate the cache.
+   */
+  private ContentRepository contentRepository;
+
+  /**
+   * The content bean factory from which to create the taxonomy beans.
+   */
+  private ContentBeanFactory contentBeanFactory;
+
+  /**
+   * Maximum number of cached taxonomy paths.
+   */
+  private int maxSize = 1000;
+
+  /**
+   * The cached paths by taxonomy id, in access order. Guarded by itself.
+   */
+  private final LinkedHashMap<String, CachedPath> paths = new LinkedHashMap<String, CachedPath>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CachedPath> eldest) {
+      return size() > maxSize;
+    }
+  };
+
+  /**
+   * Incremented on every invalidation, so that paths computed concurrently with an invalidation are not cached.
+   * Guarded by {@link #paths}.
+   */
+  private long generation;
+
+  /**
+   * Number of paths served from the cache.
+   */
+  private final LongAdder hits = new LongAdder();
+
+  /**
+   * Number of paths which had to be computed.
+   */
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Listener which evicts the paths of changed taxonomies.
+   */
+  private final ContentRepositoryListenerBase invalidationListener = new ContentRepositoryListenerBase() {
+    @Override
+    protected void handleContentEvent(ContentEvent event) {
+      Content content = event.getContent();
+      if (content != null && content.getType().isSubtypeOf(TAXONOMY_TYPE)) {
+        invalidate(content.getId());
+      }
+    }
+  };
+
+  @Override
+  public void afterPropertiesSet() {
+    contentRepository.addContentRepositoryListener(invalidationListener);
+  }
+
+  @Override
+  public void destroy() {
+    contentRepository.removeContentRepositoryListener(invalidationListener);
+  }
+
+  /**
+   * Gets the rendered path of a taxonomy, with the names of all taxonomies from the root down to the specified one as
+   * segments.
+   *
+   * @param tag the taxonomy content
+   * @return the rendered path, or null if the content is not a taxonomy
+   */
+  public String getTaxonomyPath(Content tag) {
+    String id = tag.getId();
+    long computeGeneration;
+    synchronized (paths) {
+      CachedPath cachedPath = paths.get(id);
+      if (cachedPath != null) {
+        hits.increment();
+        return cachedPath.path;
+      }
+      computeGeneration = generation;
+    }
+    misses.increment();
+
+    CachedPath cachedPath = computeTaxonomyPath(tag);
+    if (cachedPath == null) {
+      return null;
+    }
+    synchronized (paths) {
+      if (computeGeneration == generation) {
+        paths.put(id, cachedPath);
+      }
+    }
+    return cachedPath.path;
+  }
+
+  /**
+   * Computes the rendered path of a taxonomy.
+   *
+   * @param tag the taxonomy content
+   * @return the path and the ids of the taxonomies it was rendered from, or null if the content is not a taxonomy
+   */
+  private CachedPath computeTaxonomyPath(Content tag) {
+    ContentBean tagBean = contentBeanFactory.createBeanFor(tag, CMTaxonomy.class);
+    if (!(tagBean instanceof CMTaxonomy)) {
+      return null;
+    }
+    List<? extends CMTaxonomy> taxonomyPathList = ((CMTaxonomy) tagBean).getTaxonomyPathList();
+    Set<String> ancestorIds = new HashSet<>();
+    ancestorIds.add(tag.getId());
+    StringBuilder prefixedCategoryPath = new StringBuilder();
+
+    // append category hierarchy with content names as segments
+    for (CMTaxonomy taxonomyPathSegment : taxonomyPathList) {
+      Content segment = taxonomyPathSegment.getContent();
+      ancestorIds.add(segment.getId());
+      prefixedCategoryPath.append(TAXONOMY_PATH_SEPARATOR).append(segment.getName());
+    }
+    prefixedCategoryPath.append(TAXONOMY_PATH_SEPARATOR);
+    return new CachedPath(prefixedCategoryPath.toString(), ancestorIds);
+  }
+
+  /**
+   * Evicts the paths of a taxonomy and of all taxonomies below it.
+   *
+   * @param taxonomyId the id of the changed taxonomy
+   */
+  private void invalidate(String taxonomyId) {
+    int evicted = 0;
+    synchronized (paths) {
+      generation++;
+      for (Iterator<CachedPath> iterator = paths.values().iterator(); iterator.hasNext(); ) {
+        if (iterator.next().ancestorIds.contains(taxonomyId)) {
+          iterator.remove();
+          evicted++;
+        }
+      }
+    }
+    LOG.debug("Evicted {} taxonomy paths after a change of {}", evicted, taxonomyId);
+  }
+
+  /**
+   * Evicts all paths.
+   */
+  @ManagedOperation(description = "Evicts all cached taxonomy paths")
+  public void clear() {
+    synchronized (paths) {
+      generation++;
+      paths.clear();
+    }
+  }
+
+  @ManagedAttribute(description = "Number of cached taxonomy paths")
+  public int getSize() {
+    synchronized (paths) {
+      return paths.size();
+    }
+  }
+
+  @ManagedAttribute(description = "Maximum number of cached taxonomy paths")
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  @ManagedAttribute(description = "Number of taxonomy paths served from the cache")
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  @ManagedAttribute(description = "Number of taxonomy paths which had to be computed")
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  @ManagedAttribute(description = "Ratio of taxonomy paths served from the cache")
+  public double getHitRate() {
+    long hitCount = hits.sum();
+    long requestCount = hitCount + misses.sum();
+    return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+  }
+
+  /**
+   * Sets the content repository.
+   *
+   * @param contentRepository the content repository to set
+   */
+  @Required
+  public void setContentRepository(ContentRepository contentRepository) {
+    this.contentRepository = contentRepository;
+  }
+
+  /**
+   * Sets the content bean factory.
+   *
+   * @param contentBeanFactory the content bean factory to set
+   */
+  @Required
+  public void setContentBeanFactory(ContentBeanFactory contentBeanFactory) {
+    this.contentBeanFactory = contentBeanFactory;
+  }
+
+  /**
+   * Sets the maximum number of cached taxonomy paths.
+   *
+   * @param maxSize the maximum number of cached taxonomy paths
+   */
+  public void setMaxSize(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * A rendered taxonomy path together with the ids of the taxonomies it was rendered from.
+   */
+  private static class CachedPath {
+
+    /**
+     * The rendered path.
+     */
+    private final String path;
+
+    /**
+     * The ids of the taxonomy and of all its ancestors.
+     */
+    private final Set<String> ancestorIds;
+
+    /**
+     * Constructor.
+     *
+     * @param path        the rendered path
+     * @param ancestorIds the ids of the taxonomy and of all its ancestors
+     */
+    private CachedPath(String path, Set<String> ancestorIds) {
+      this.path = path;
+      this.ancestorIds = ancestorIds;
+    }
+  }
+}
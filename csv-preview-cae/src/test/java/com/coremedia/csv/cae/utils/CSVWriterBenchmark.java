@@ -0,0 +1,87 @@
+package com.coremedia.csv.cae.utils;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares writing the records of an export with the {@link CSVWriter} and reused {@link CSVRow}s to the former
+ * path, which built a map per record and printed it with a {@link CSVPrinter}. Run the main method from the test
+ * classpath; the GC profiler reports the allocation per record as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CSVWriterBenchmark {
+
+  private static final String[] HEADER = {"Id", "Name", "Type", "Teaser Title", "Teaser Text", "Creation Date",
+          "Version Status", "URL"};
+
+  private static final String[] VALUES = {"1234", "Sports News", "CMArticle", "A title, with a comma",
+          "Some \"quoted\" teaser text\nwith a line break", "2024-01-01 12:00:00", "Published",
+          "https://www.example.com/sports/sports-news-1234"};
+
+  private CSVPrinter csvPrinter;
+
+  private CSVWriter csvWriter;
+
+  private CSVRow row;
+
+  @Setup
+  public void setUp() throws IOException {
+    csvPrinter = new CSVPrinter(Writer.nullWriter(), CSVFormat.EXCEL);
+    csvWriter = new CSVWriter(Writer.nullWriter());
+    row = new CSVRow(HEADER.length);
+  }
+
+  @Benchmark
+  public void csvPrinter() throws IOException {
+    Map<String, String> csvRecord = new HashMap<>();
+    for (int i = 0; i < HEADER.length; i++) {
+      csvRecord.put(HEADER[i], VALUES[i]);
+    }
+    List<String> values = Arrays.stream(HEADER).map(csvRecord::get).collect(Collectors.toList());
+    csvPrinter.printRecord(values);
+  }
+
+  @Benchmark
+  public void csvWriter() throws IOException {
+    row.clear();
+    for (int i = 0; i < HEADER.length; i++) {
+      row.cell(i).append(VALUES[i]);
+    }
+    csvWriter.write(row);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+            .include(CSVWriterBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+  }
+}
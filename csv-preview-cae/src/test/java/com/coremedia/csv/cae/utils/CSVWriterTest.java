@@ -0,0 +1,101 @@
+package com.coremedia.csv.cae.utils;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the output of the {@link CSVWriter} with the one of a {@link CSVPrinter} in the Excel format, which it
+ * replaces.
+ */
+class CSVWriterTest {
+
+  private static final String[] HEADER = {"Id", "Name", "Teaser Title", "Description"};
+
+  /**
+   * Characters which affect the quoting of a value.
+   */
+  private static final char[] SPECIAL_CHARS = {'"', ',', '\r', '\n', ' ', '\t', '#', '!', ';', 'a', 'Z', '0', '\u00e4'};
+
+  @Test
+  void writesRecordsLikeCSVPrinter() throws IOException {
+    Random random = new Random(42);
+    List<String[]> records = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      String[] values = new String[HEADER.length];
+      for (int column = 0; column < values.length; column++) {
+        values[column] = randomValue(random, column > 0);
+      }
+      records.add(values);
+    }
+    assertEquals(printWithCSVPrinter(records), writeWithCSVWriter(records));
+  }
+
+  @Test
+  void quotesNullFirstValue() throws IOException {
+    List<String[]> records = Arrays.asList(new String[]{null}, new String[]{null, "value"}, new String[]{"", null});
+    String csv = writeWithCSVWriter(records);
+    assertEquals("Id,Name,Teaser Title,Description\r\n\"\"\r\n\"\",value\r\n\"\",\r\n", csv);
+
+    // a single null value must not be read back as an empty line
+    try (CSVParser parser = CSVParser.parse(new StringReader(csv), CSVFormat.EXCEL)) {
+      List<CSVRecord> parsed = parser.getRecords();
+      assertEquals(4, parsed.size());
+      assertEquals(Arrays.asList(""), parsed.get(1).toList());
+      assertEquals(Arrays.asList("", "value"), parsed.get(2).toList());
+      assertEquals(Arrays.asList("", ""), parsed.get(3).toList());
+    }
+  }
+
+  private static String randomValue(Random random, boolean nullable) {
+    if (nullable && random.nextInt(8) == 0) {
+      return null;
+    }
+    StringBuilder value = new StringBuilder();
+    int length = random.nextInt(6);
+    for (int i = 0; i < length; i++) {
+      value.append(SPECIAL_CHARS[random.nextInt(SPECIAL_CHARS.length)]);
+    }
+    return value.toString();
+  }
+
+  private static String printWithCSVPrinter(List<String[]> records) throws IOException {
+    StringWriter out = new StringWriter();
+    try (CSVPrinter printer = new CSVPrinter(out, CSVFormat.EXCEL)) {
+      printer.printRecord((Object[]) HEADER);
+      for (String[] values : records) {
+        printer.printRecord((Object[]) values);
+      }
+    }
+    return out.toString();
+  }
+
+  private static String writeWithCSVWriter(List<String[]> records) throws IOException {
+    StringWriter out = new StringWriter();
+    CSVWriter writer = new CSVWriter(out);
+    writer.writeHeader(HEADER);
+    for (String[] values : records) {
+      CSVRow row = new CSVRow(values.length);
+      for (int column = 0; column < values.length; column++) {
+        if (values[column] != null) {
+          row.set(column, values[column]);
+        }
+      }
+      writer.write(row);
+    }
+    writer.close();
+    return out.toString();
+  }
+}
@@ -13,7 +13,10 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
 
 import static java.lang.invoke.MethodHandles.lookup;
@@ -48,28 +51,84 @@ class CSVConfiguration {
     if(defaultItemLimit > searchServiceConfig.getMaxSearchLimit()) {
       LOG.warn("defaultItemLimit of {} exceeds configured SearchService.maxSearchLimit of {}", defaultItemLimit, searchServiceConfig.getMaxSearchLimit());
     }
-    return new CSVExportSearchService(contentRepository, searchService, capObjectFormat, linkResolver, defaultItemLimit);
+    int searchPageSize = csvConfigurationProperties.getSearchPageSize();
+    if(searchPageSize > searchServiceConfig.getMaxSearchLimit()) {
+      LOG.warn("searchPageSize of {} exceeds configured SearchService.maxSearchLimit of {}", searchPageSize, searchServiceConfig.getMaxSearchLimit());
+    }
+    return new CSVExportSearchService(contentRepository, searchService, capObjectFormat, linkResolver, defaultItemLimit,
+            searchPageSize);
   }
 
   @Bean
   public CSVExportResource csvExportResource(CSVExportAuthorization csvExportAuthorization,
                                              CSVExportSearchService csvExportSearchService,
-                                             CSVFileRetriever csvFileRetriever) {
-    return new CSVExportResource(csvExportAuthorization, csvExportSearchService, csvFileRetriever);
+                                             CSVFileRetriever csvFileRetriever,
+                                             CSVResultCache csvResultCache,
+                                             CSVConfigurationProperties csvConfigurationProperties) {
+    return new CSVExportResource(csvExportAuthorization, csvExportSearchService, csvFileRetriever, csvResultCache,
+            csvConfigurationProperties.isShareResultsAcrossUsers());
+  }
+
+  @Bean(destroyMethod = "close")
+  public CSVHttpClientPool csvHttpClientPool(CSVConfigurationProperties csvConfigurationProperties) {
+    return new CSVHttpClientPool(csvConfigurationProperties);
+  }
+
+  @Bean
+  public ThreadPoolTaskExecutor csvFetchExecutor(CSVConfigurationProperties csvConfigurationProperties) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    // batches are only fetched concurrently up to the connection limit of the preview CAE
+    int poolSize = csvConfigurationProperties.getHttpMaxConnectionsPerRoute();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setThreadNamePrefix("csv-fetch-");
+    return executor;
   }
 
   @Bean
-  public CSVFileRetriever csvFileRetriever(CSVConfigurationProperties csvConfigurationProperties) {
+  public CSVFileRetriever csvFileRetriever(CSVConfigurationProperties csvConfigurationProperties,
+                                           CSVHttpClientPool csvHttpClientPool,
+                                           ThreadPoolTaskExecutor csvFetchExecutor) {
+    int concurrentBatches = csvConfigurationProperties.getConcurrentBatches();
+    if (concurrentBatches > csvConfigurationProperties.getHttpMaxConnectionsPerRoute()) {
+      LOG.warn("concurrentBatches of {} exceeds configured httpMaxConnectionsPerRoute of {}", concurrentBatches,
+              csvConfigurationProperties.getHttpMaxConnectionsPerRoute());
+    }
     return new CSVFileRetriever(csvConfigurationProperties.getPreviewRestUrlPrefix(),
-            csvConfigurationProperties.getBatchSize());
+            csvConfigurationProperties.getBatchSize(), csvHttpClientPool.getHttpClient(), concurrentBatches,
+            csvFetchExecutor);
+  }
+
+  @Bean(destroyMethod = "close")
+  public CSVRepositoryWatermark csvRepositoryWatermark(ContentRepository contentRepository,
+                                                       CSVConfigurationProperties csvConfigurationProperties) {
+    return new CSVRepositoryWatermark(contentRepository,
+            csvConfigurationProperties.getResultCacheLinkedContentTypes());
+  }
+
+  @Bean
+  public CSVExportCoalescer csvExportCoalescer() {
+    return new CSVExportCoalescer();
+  }
+
+  @Bean
+  public CSVResultCache csvResultCache(CSVRepositoryWatermark csvRepositoryWatermark,
+                                       CSVConfigurationProperties csvConfigurationProperties) throws IOException {
+    return new CSVResultCache(csvRepositoryWatermark, Paths.get(csvConfigurationProperties.getResultCacheDirectory()),
+            csvConfigurationProperties.getResultCacheMaxEntries(),
+            csvConfigurationProperties.getResultCacheMaxSize().toBytes(),
+            csvConfigurationProperties.getResultCacheMaxAge());
   }
 
   @Bean
   public CSVExportJobFactory csvExportJobFactory(CSVExportAuthorization csvExportAuthorization,
                                                  CSVExportSearchService csvExportSearchService,
                                                  CSVFileRetriever csvFileRetriever,
-                                                 ContentRepository contentRepository) {
+                                                 ContentRepository contentRepository,
+                                                 CSVConfigurationProperties csvConfigurationProperties,
+                                                 CSVExportCoalescer csvExportCoalescer,
+                                                 CSVResultCache csvResultCache) {
     return new CSVExportJobFactory(csvExportAuthorization, csvExportSearchService,
-            csvFileRetriever, contentRepository);
+            csvFileRetriever, contentRepository, csvConfigurationProperties, csvExportCoalescer, csvResultCache);
   }
 }
@@ -3,6 +3,10 @@ package com.coremedia.csv.studio;
 import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
 
 @ConfigurationProperties(prefix = "csv")
 @DefaultAnnotation(NonNull.class)
@@ -10,12 +14,80 @@ public class CSVConfigurationProperties {
   private String previewRestUrlPrefix = "http://cae-preview:8080/blueprint/servlet";
 
   // limit of content items to export.
-  // -1 defaults to the default of the Studio's SearchService (5000)
+  // -1 defaults to the default of the Studio's SearchService (5000) for direct exports,
+  // and to no limit for exports running as async Studio Job
   private int defaultItemLimit = -1;
 
+  // number of content IDs to search at once when using async Studio Job, must not exceed the
+  // SearchService's maxSearchLimit
+  private int searchPageSize = 1000;
+
   // number of rows/contents to fetch in a batch when using async Studio Job
   private int batchSize = 100;
 
+  // the number of batches which are requested from the preview CAE at the same time when using async Studio Job
+  private int concurrentBatches = 1;
+
+  // directory in which async Studio Jobs store their progress, so that failed or interrupted exports can be resumed
+  private String checkpointDirectory = System.getProperty("java.io.tmpdir") + "/csv-export-checkpoints";
+
+  // time after which the checkpoints of exports which have not been resumed are deleted
+  private Duration checkpointRetention = Duration.ofDays(7);
+
+  // maximum time after the search of an export within which its checkpoint is resumed, older checkpoints start over
+  private Duration checkpointMaxResumeAge = Duration.ofHours(1);
+
+  // number of times a failed batch is retried before an async Studio Job fails
+  private int batchRetries = 5;
+
+  // time to wait before the first retry of a failed batch, doubled for every further retry
+  private Duration batchRetryBackoff = Duration.ofSeconds(2);
+
+  // maximum time to wait before retrying a failed batch
+  private Duration batchRetryMaxBackoff = Duration.ofMinutes(2);
+
+  // whether identical exports of different users share their result, when running at the same time or from the
+  // result cache. Only enable this if all users who may export have the same read rights, as the content to export
+  // is searched with the rights of the first user.
+  private boolean shareResultsAcrossUsers = false;
+
+  // directory of the cached CSV files of completed exports
+  private String resultCacheDirectory = System.getProperty("java.io.tmpdir") + "/csv-result-cache";
+
+  // maximum number of cached exports, 0 disables the cache
+  private int resultCacheMaxEntries = 50;
+
+  // maximum total size of the cached CSV files
+  private DataSize resultCacheMaxSize = DataSize.ofGigabytes(1);
+
+  // time after which a cached export is computed again, even if none of its contents has changed
+  private Duration resultCacheMaxAge = Duration.ofMinutes(15);
+
+  // content types whose changes invalidate all cached exports, as their values appear in the exports of the contents
+  // linking them, e.g. taxonomy paths, picture properties and page URLs
+  private List<String> resultCacheLinkedContentTypes = List.of("CMTaxonomy", "CMPicture", "CMChannel");
+
+  // timeout for establishing a connection to the preview CAE
+  private Duration httpConnectTimeout = Duration.ofSeconds(5);
+
+  // timeout for leasing a connection from the pool
+  private Duration httpConnectionRequestTimeout = Duration.ofSeconds(30);
+
+  // timeout between two packets of a response, i.e. how long the preview CAE may take to render a batch
+  private Duration httpSocketTimeout = Duration.ofMinutes(5);
+
+  // maximum number of pooled connections
+  private int httpMaxConnections = 20;
+
+  // maximum number of pooled connections to a single preview CAE
+  private int httpMaxConnectionsPerRoute = 10;
+
+  // time after which idle connections are closed, also used if the preview CAE does not send a keep-alive header
+  private Duration httpKeepAlive = Duration.ofSeconds(60);
+
+  // time after which idle connections are evicted from the pool
+  private Duration httpIdleConnectionTimeout = Duration.ofSeconds(30);
+
   public String getPreviewRestUrlPrefix() {
     return previewRestUrlPrefix;
   }
@@ -39,4 +111,172 @@ public class CSVConfigurationProperties {
   public void setBatchSize(int batchSize) {
     this.batchSize = batchSize;
   }
+
+  public int getSearchPageSize() {
+    return searchPageSize;
+  }
+
+  public void setSearchPageSize(int searchPageSize) {
+    this.searchPageSize = searchPageSize;
+  }
+
+  public int getConcurrentBatches() {
+    return concurrentBatches;
+  }
+
+  public void setConcurrentBatches(int concurrentBatches) {
+    this.concurrentBatches = concurrentBatches;
+  }
+
+  public String getCheckpointDirectory() {
+    return checkpointDirectory;
+  }
+
+  public void setCheckpointDirectory(String checkpointDirectory) {
+    this.checkpointDirectory = checkpointDirectory;
+  }
+
+  public Duration getCheckpointRetention() {
+    return checkpointRetention;
+  }
+
+  public void setCheckpointRetention(Duration checkpointRetention) {
+    this.checkpointRetention = checkpointRetention;
+  }
+
+  public Duration getCheckpointMaxResumeAge() {
+    return checkpointMaxResumeAge;
+  }
+
+  public void setCheckpointMaxResumeAge(Duration checkpointMaxResumeAge) {
+    this.checkpointMaxResumeAge = checkpointMaxResumeAge;
+  }
+
+  public int getBatchRetries() {
+    return batchRetries;
+  }
+
+  public void setBatchRetries(int batchRetries) {
+    this.batchRetries = batchRetries;
+  }
+
+  public Duration getBatchRetryBackoff() {
+    return batchRetryBackoff;
+  }
+
+  public void setBatchRetryBackoff(Duration batchRetryBackoff) {
+    this.batchRetryBackoff = batchRetryBackoff;
+  }
+
+  public Duration getBatchRetryMaxBackoff() {
+    return batchRetryMaxBackoff;
+  }
+
+  public void setBatchRetryMaxBackoff(Duration batchRetryMaxBackoff) {
+    this.batchRetryMaxBackoff = batchRetryMaxBackoff;
+  }
+
+  public boolean isShareResultsAcrossUsers() {
+    return shareResultsAcrossUsers;
+  }
+
+  public void setShareResultsAcrossUsers(boolean shareResultsAcrossUsers) {
+    this.shareResultsAcrossUsers = shareResultsAcrossUsers;
+  }
+
+  public String getResultCacheDirectory() {
+    return resultCacheDirectory;
+  }
+
+  public void setResultCacheDirectory(String resultCacheDirectory) {
+    this.resultCacheDirectory = resultCacheDirectory;
+  }
+
+  public int getResultCacheMaxEntries() {
+    return resultCacheMaxEntries;
+  }
+
+  public void setResultCacheMaxEntries(int resultCacheMaxEntries) {
+    this.resultCacheMaxEntries = resultCacheMaxEntries;
+  }
+
+  public DataSize getResultCacheMaxSize() {
+    return resultCacheMaxSize;
+  }
+
+  public void setResultCacheMaxSize(DataSize resultCacheMaxSize) {
+    this.resultCacheMaxSize = resultCacheMaxSize;
+  }
+
+  public Duration getResultCacheMaxAge() {
+    return resultCacheMaxAge;
+  }
+
+  public void setResultCacheMaxAge(Duration resultCacheMaxAge) {
+    this.resultCacheMaxAge = resultCacheMaxAge;
+  }
+
+  public List<String> getResultCacheLinkedContentTypes() {
+    return resultCacheLinkedContentTypes;
+  }
+
+  public void setResultCacheLinkedContentTypes(List<String> resultCacheLinkedContentTypes) {
+    this.resultCacheLinkedContentTypes = resultCacheLinkedContentTypes;
+  }
+
+  public Duration getHttpConnectTimeout() {
+    return httpConnectTimeout;
+  }
+
+  public void setHttpConnectTimeout(Duration httpConnectTimeout) {
+    this.httpConnectTimeout = httpConnectTimeout;
+  }
+
+  public Duration getHttpConnectionRequestTimeout() {
+    return httpConnectionRequestTimeout;
+  }
+
+  public void setHttpConnectionRequestTimeout(Duration httpConnectionRequestTimeout) {
+    this.httpConnectionRequestTimeout = httpConnectionRequestTimeout;
+  }
+
+  public Duration getHttpSocketTimeout() {
+    return httpSocketTimeout;
+  }
+
+  public void setHttpSocketTimeout(Duration httpSocketTimeout) {
+    this.httpSocketTimeout = httpSocketTimeout;
+  }
+
+  public int getHttpMaxConnections() {
+    return httpMaxConnections;
+  }
+
+  public void setHttpMaxConnections(int httpMaxConnections) {
+    this.httpMaxConnections = httpMaxConnections;
+  }
+
+  public int getHttpMaxConnectionsPerRoute() {
+    return httpMaxConnectionsPerRoute;
+  }
+
+  public void setHttpMaxConnectionsPerRoute(int httpMaxConnectionsPerRoute) {
+    this.httpMaxConnectionsPerRoute = httpMaxConnectionsPerRoute;
+  }
+
+  public Duration getHttpKeepAlive() {
+    return httpKeepAlive;
+  }
+
+  public void setHttpKeepAlive(Duration httpKeepAlive) {
+    this.httpKeepAlive = httpKeepAlive;
+  }
+
+  public Duration getHttpIdleConnectionTimeout() {
+    return httpIdleConnectionTimeout;
+  }
+
+  public void setHttpIdleConnectionTimeout(Duration httpIdleConnectionTimeout) {
+    this.httpIdleConnectionTimeout = httpIdleConnectionTimeout;
+  }
 }
@@ -0,0 +1,119 @@
+package com.coremedia.csv.studio;
+
+import com.coremedia.cap.common.IdHelper;
+import com.coremedia.cap.content.Content;
+import com.coremedia.rest.cap.content.search.SearchServiceResult;
+
+import java.util.List;
+
+/**
+ * Pages through the numeric IDs of a search result. Only the IDs of the current page are held, so the memory used
+ * does not depend on the size of the result.
+ */
+public class CSVContentIdCursor implements CSVContentIdSource {
+
+  /**
+   * Searches a single page.
+   */
+  @FunctionalInterface
+  public interface PageSearch {
+
+    /**
+     * Searches the page following a content.
+     *
+     * @param lastId the numeric ID of the last content of the previous page, or -1 for the first page
+     * @param limit  the maximum number of hits of the page
+     * @return the result of the page
+     */
+    SearchServiceResult search(int lastId, int limit);
+  }
+
+  private static final int[] EMPTY_PAGE = new int[0];
+
+  private final PageSearch pageSearch;
+
+  private final int pageSize;
+
+  /**
+   * The maximum number of IDs returned by the cursor, or -1 for no limit.
+   */
+  private final int limit;
+
+  /**
+   * Whether the complete result is read with a single search.
+   */
+  private final boolean singlePage;
+
+  private int lastId = -1;
+
+  private int count;
+
+  private long total = -1;
+
+  private boolean exhausted;
+
+  /**
+   * Constructor.
+   *
+   * @param pageSearch the search for a single page
+   * @param pageSize   the maximum number of IDs of a page
+   * @param limit      the maximum number of IDs returned by the cursor, or -1 for no limit
+   * @param singlePage whether the complete result is read with a single search, ignoring the page size
+   */
+  public CSVContentIdCursor(PageSearch pageSearch, int pageSize, int limit, boolean singlePage) {
+    this.pageSearch = pageSearch;
+    this.pageSize = pageSize;
+    this.limit = limit;
+    this.singlePage = singlePage;
+  }
+
+  /**
+   * Searches the next page of IDs.
+   *
+   * @return the numeric IDs of the next page, an empty array if all IDs have been returned
+   */
+  @Override
+  public int[] nextPage() {
+    if (exhausted) {
+      return EMPTY_PAGE;
+    }
+    int pageLimit = singlePage ? limit : pageSize;
+    if (limit != -1) {
+      pageLimit = Math.min(pageLimit, limit - count);
+    }
+    SearchServiceResult result = pageSearch.search(lastId, pageLimit);
+    if (total == -1) {
+      total = limit == -1 ? result.getTotal() : Math.min(result.getTotal(), limit);
+    }
+    List<Content> hits = result.getHits();
+    int[] ids = new int[hits.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = IdHelper.parseContentId(hits.get(i).getId());
+    }
+    count += ids.length;
+    if (ids.length > 0) {
+      lastId = ids[ids.length - 1];
+    }
+    exhausted = singlePage || ids.length < pageLimit || (limit != -1 && count >= limit);
+    return ids;
+  }
+
+  /**
+   * Gets the number of IDs returned so far.
+   *
+   * @return the number of IDs returned so far
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Gets the total number of IDs of the result, as reported by the search of the first page.
+   *
+   * @return the total number of IDs, or -1 if no page has been searched yet
+   */
+  @Override
+  public long getTotal() {
+    return total;
+  }
+}
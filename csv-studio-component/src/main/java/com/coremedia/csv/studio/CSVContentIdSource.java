@@ -0,0 +1,66 @@
+package com.coremedia.csv.studio;
+
+import com.coremedia.cap.common.IdHelper;
+import com.coremedia.cap.content.Content;
+
+import java.util.List;
+
+/**
+ * A source of the numeric IDs of the contents to export, which are read page by page.
+ */
+public interface CSVContentIdSource {
+
+  /**
+   * Reads the next page of IDs.
+   *
+   * @return the numeric IDs of the next page, an empty array if all IDs have been returned
+   */
+  int[] nextPage();
+
+  /**
+   * Gets the total number of IDs of the source.
+   *
+   * @return the total number of IDs, or -1 if it is not known yet
+   */
+  long getTotal();
+
+  /**
+   * Creates a source of the IDs of contents which are already known.
+   *
+   * @param contents the contents
+   * @return a source returning the numeric IDs of the contents as a single page
+   */
+  static CSVContentIdSource of(List<Content> contents) {
+    int[] ids = new int[contents.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = IdHelper.parseContentId(contents.get(i).getId());
+    }
+    return of(ids);
+  }
+
+  /**
+   * Creates a source of IDs which are already known.
+   *
+   * @param ids the numeric IDs
+   * @return a source returning the IDs as a single page
+   */
+  static CSVContentIdSource of(int[] ids) {
+    return new CSVContentIdSource() {
+      private boolean read;
+
+      @Override
+      public int[] nextPage() {
+        if (read) {
+          return new int[0];
+        }
+        read = true;
+        return ids;
+      }
+
+      @Override
+      public long getTotal() {
+        return ids.length;
+      }
+    };
+  }
+}
@@ -0,0 +1,371 @@
+package com.coremedia.csv.studio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static java.lang.invoke.MethodHandles.lookup;
+
+/**
+ * The persisted progress of an export job. A checkpoint consists of a directory holding the resolved content IDs of
+ * the export, the CSV written so far and the state of the last completed batch. The state is replaced atomically
+ * after each batch, so after a failure or a restart the export continues after the last completed batch, and the
+ * partial CSV is truncated to the length recorded with it. A checkpoint is only resumed shortly after its IDs have
+ * been resolved, as contents created or changed since then would be missing from the export or exported with
+ * outdated IDs.
+ */
+public class CSVExportCheckpoint {
+
+  private static final Logger LOG = LoggerFactory.getLogger(lookup().lookupClass());
+
+  private static final String IDS_FILE = "ids.bin";
+  private static final String CSV_FILE = "export.csv";
+  private static final String STATE_FILE = "state.properties";
+
+  private static final String STATE_ID_COUNT = "idCount";
+  private static final String STATE_OFFSET = "offset";
+  private static final String STATE_CSV_LENGTH = "csvLength";
+  private static final String STATE_RESOLVED_AT = "resolvedAt";
+
+  /**
+   * The number of IDs read from the ID file at once.
+   */
+  private static final int ID_PAGE_SIZE = 1000;
+
+  private final Path directory;
+
+  /**
+   * The number of resolved IDs, or -1 if the IDs have not been resolved completely.
+   */
+  private int idCount = -1;
+
+  /**
+   * The number of IDs whose CSV has been written completely.
+   */
+  private int offset;
+
+  /**
+   * The length of the CSV file after the last completed batch.
+   */
+  private long csvLength;
+
+  /**
+   * The time at which the IDs have been resolved, in milliseconds since the epoch.
+   */
+  private long resolvedAt;
+
+  private DataInputStream idStream;
+
+  private FileChannel csvChannel;
+
+  private OutputStream csvStream;
+
+  private CSVExportCheckpoint(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Opens the checkpoint of an export, loading its state if the export has been started before. A checkpoint whose
+   * IDs have been resolved longer ago than the given age is discarded, so the export starts over.
+   *
+   * @param checkpointDirectory the directory of all checkpoints
+   * @param key                 the key identifying the export
+   * @param maxResumeAge        the maximum age of the resolved IDs of a resumed checkpoint
+   * @return the checkpoint of the export
+   * @throws IOException if the checkpoint cannot be read or created
+   */
+  public static CSVExportCheckpoint open(Path checkpointDirectory, String key, Duration maxResumeAge)
+          throws IOException {
+    CSVExportCheckpoint checkpoint = new CSVExportCheckpoint(checkpointDirectory.resolve(hash(key)));
+    Files.createDirectories(checkpoint.directory);
+    checkpoint.loadState();
+    if (checkpoint.hasIds()
+            && Instant.ofEpochMilli(checkpoint.resolvedAt).isBefore(Instant.now().minus(maxResumeAge))) {
+      LOG.info("Discarding CSV export checkpoint {} with IDs resolved at {}", checkpoint.directory,
+              Instant.ofEpochMilli(checkpoint.resolvedAt));
+      deleteDirectory(checkpoint.directory);
+      Files.createDirectories(checkpoint.directory);
+      checkpoint.idCount = -1;
+      checkpoint.offset = 0;
+      checkpoint.csvLength = 0;
+    }
+    return checkpoint;
+  }
+
+  /**
+   * Deletes the checkpoints which have not been updated within the retention period.
+   *
+   * @param checkpointDirectory the directory of all checkpoints
+   * @param retention           the retention period of checkpoints
+   */
+  public static void deleteExpired(Path checkpointDirectory, Duration retention) {
+    if (!Files.isDirectory(checkpointDirectory)) {
+      return;
+    }
+    FileTime expiry = FileTime.from(Instant.now().minus(retention));
+    try (DirectoryStream<Path> checkpoints = Files.newDirectoryStream(checkpointDirectory)) {
+      for (Path checkpoint : checkpoints) {
+        if (Files.getLastModifiedTime(checkpoint).compareTo(expiry) < 0) {
+          LOG.info("Deleting expired CSV export checkpoint {}", checkpoint);
+          deleteDirectory(checkpoint);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to delete expired CSV export checkpoints in {}", checkpointDirectory, e);
+    }
+  }
+
+  /**
+   * Whether the IDs of the export have been resolved completely.
+   *
+   * @return true if the IDs have been resolved
+   */
+  public boolean hasIds() {
+    return idCount != -1;
+  }
+
+  /**
+   * Resolves the IDs of the export and stores them in the checkpoint. Any previously written CSV is discarded.
+   *
+   * @param source the source of the IDs
+   * @throws IOException if the IDs cannot be written
+   */
+  public void writeIds(CSVContentIdSource source) throws IOException {
+    int count = 0;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(directory.resolve(IDS_FILE))))) {
+      int[] page;
+      while ((page = source.nextPage()).length > 0) {
+        for (int id : page) {
+          out.writeInt(id);
+        }
+        count += page.length;
+      }
+    }
+    idCount = count;
+    offset = 0;
+    csvLength = 0;
+    resolvedAt = System.currentTimeMillis();
+    storeState();
+  }
+
+  /**
+   * Gets the number of IDs of the export.
+   *
+   * @return the number of IDs, or -1 if the IDs have not been resolved
+   */
+  public int getIdCount() {
+    return idCount;
+  }
+
+  /**
+   * Gets the number of IDs whose CSV has been written completely.
+   *
+   * @return the number of completed IDs
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * Whether the CSV of all IDs has been written.
+   *
+   * @return true if the export is complete
+   */
+  public boolean isComplete() {
+    return hasIds() && offset == idCount;
+  }
+
+  /**
+   * Reads the IDs whose CSV has not been written yet. The IDs are read page by page from the checkpoint.
+   *
+   * @return the source of the remaining IDs
+   * @throws IOException if the IDs cannot be read
+   */
+  public CSVContentIdSource getRemainingIds() throws IOException {
+    closeIds();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(IDS_FILE))));
+    idStream = in;
+    in.skipNBytes((long) offset * Integer.BYTES);
+    int remaining = idCount - offset;
+    return new CSVContentIdSource() {
+      private int read;
+
+      @Override
+      public int[] nextPage() {
+        int[] page = new int[Math.min(ID_PAGE_SIZE, remaining - read)];
+        try {
+          for (int i = 0; i < page.length; i++) {
+            page[i] = in.readInt();
+          }
+          read += page.length;
+        } catch (EOFException e) {
+          throw new IllegalStateException("Truncated ID file in " + directory, e);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        return page;
+      }
+
+      @Override
+      public long getTotal() {
+        return remaining;
+      }
+    };
+  }
+
+  /**
+   * Opens the CSV file for writing the remaining batches. Anything written after the last completed batch is
+   * discarded.
+   *
+   * @return the stream to write the CSV to
+   * @throws IOException if the CSV file cannot be opened
+   */
+  public OutputStream openCSV() throws IOException {
+    closeCSV();
+    csvChannel = FileChannel.open(directory.resolve(CSV_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    csvChannel.truncate(csvLength);
+    csvChannel.position(csvLength);
+    csvStream = new BufferedOutputStream(Channels.newOutputStream(csvChannel));
+    return csvStream;
+  }
+
+  /**
+   * Records a completed batch. The CSV written so far is flushed to disk before the state is replaced.
+   *
+   * @param completedIds the number of IDs of the batch
+   * @throws IOException if the CSV or the state cannot be written
+   */
+  public void commit(int completedIds) throws IOException {
+    csvStream.flush();
+    csvChannel.force(false);
+    offset += completedIds;
+    csvLength = csvChannel.position();
+    storeState();
+  }
+
+  /**
+   * Closes the ID and CSV files, e.g. before the remaining batches are retried.
+   *
+   * @throws IOException if the files cannot be closed
+   */
+  public void close() throws IOException {
+    closeIds();
+    closeCSV();
+  }
+
+  private void closeIds() throws IOException {
+    if (idStream != null) {
+      idStream.close();
+      idStream = null;
+    }
+  }
+
+  private void closeCSV() throws IOException {
+    if (csvChannel != null) {
+      // the stream is not flushed, anything after the last completed batch is discarded anyway
+      csvChannel.close();
+      csvChannel = null;
+      csvStream = null;
+    }
+  }
+
+  /**
+   * Gets the CSV file, which is complete once {@link #isComplete()} returns true.
+   *
+   * @return the CSV file
+   */
+  public Path getCSVFile() {
+    return directory.resolve(CSV_FILE);
+  }
+
+  /**
+   * Deletes the checkpoint after the export has been stored.
+   */
+  public void delete() {
+    try {
+      close();
+      deleteDirectory(directory);
+    } catch (IOException e) {
+      LOG.warn("Failed to delete CSV export checkpoint {}", directory, e);
+    }
+  }
+
+  private void loadState() throws IOException {
+    Path stateFile = directory.resolve(STATE_FILE);
+    if (!Files.exists(stateFile)) {
+      return;
+    }
+    Properties state = new Properties();
+    try (InputStream in = Files.newInputStream(stateFile)) {
+      state.load(in);
+    }
+    idCount = Integer.parseInt(state.getProperty(STATE_ID_COUNT, "-1"));
+    offset = Integer.parseInt(state.getProperty(STATE_OFFSET, "0"));
+    csvLength = Long.parseLong(state.getProperty(STATE_CSV_LENGTH, "0"));
+    resolvedAt = Long.parseLong(state.getProperty(STATE_RESOLVED_AT, "0"));
+  }
+
+  private void storeState() throws IOException {
+    Properties state = new Properties();
+    state.setProperty(STATE_ID_COUNT, String.valueOf(idCount));
+    state.setProperty(STATE_OFFSET, String.valueOf(offset));
+    state.setProperty(STATE_CSV_LENGTH, String.valueOf(csvLength));
+    state.setProperty(STATE_RESOLVED_AT, String.valueOf(resolvedAt));
+    Path tempFile = directory.resolve(STATE_FILE + ".tmp");
+    try (OutputStream out = Files.newOutputStream(tempFile)) {
+      state.store(out, null);
+    }
+    Files.move(tempFile, directory.resolve(STATE_FILE), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    // the directory's modification time marks the last update for the expiry of checkpoints
+    Files.setLastModifiedTime(directory, FileTime.from(Instant.now()));
+  }
+
+  private static void deleteDirectory(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  private static String hash(String key) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : Arrays.copyOf(digest, 16)) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
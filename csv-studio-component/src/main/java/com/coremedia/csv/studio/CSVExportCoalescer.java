@@ -0,0 +1,145 @@
+package com.coremedia.csv.studio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.activation.MimeTypeParseException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static java.lang.invoke.MethodHandles.lookup;
+
+/**
+ * Coalesces identical export jobs which run at the same time. The first job of a key computes the export, jobs
+ * started with the same key while it is running wait for its result instead of searching and rendering the same
+ * content again. A waiting job gets the result of the search of the running job, which started at most as long
+ * before as the running export takes. Later jobs are not coalesced with completed exports, but may be served from the
+ * {@link CSVResultCache result cache}, which checks the exported contents for changes.
+ */
+@ManagedResource(description = "Coalescing of identical concurrent CSV export jobs")
+public class CSVExportCoalescer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(lookup().lookupClass());
+
+  /**
+   * The interval in which waiting jobs report the progress of the shared export.
+   */
+  private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+  /**
+   * Computes an export.
+   */
+  @FunctionalInterface
+  public interface Export {
+
+    /**
+     * Computes the export.
+     *
+     * @param progress receives the progress of the export
+     * @return the result of the export
+     */
+    CSVExportResult run(Consumer<Float> progress) throws IOException, MimeTypeParseException;
+  }
+
+  /**
+   * The running exports by key.
+   */
+  private final ConcurrentMap<String, SharedExport> runningExports = new ConcurrentHashMap<>();
+
+  /**
+   * The number of jobs which waited for the export of another job.
+   */
+  private final LongAdder coalescedExports = new LongAdder();
+
+  /**
+   * Runs an export, or waits for the result of a running export with the same key. If the running export fails, the
+   * waiting jobs are coalesced again: one of them runs the export, the others wait for it.
+   *
+   * @param key      the normalized parameters of the export
+   * @param export   the computation of the export
+   * @param progress receives the progress of the export
+   * @return the result of the export, which may be shared with other jobs
+   */
+  public CSVExportResult export(String key, Export export, Consumer<Float> progress)
+          throws IOException, MimeTypeParseException {
+    while (true) {
+      SharedExport sharedExport = new SharedExport();
+      SharedExport runningExport = runningExports.putIfAbsent(key, sharedExport);
+      if (runningExport == null) {
+        return runShared(key, sharedExport, export, progress);
+      }
+      coalescedExports.increment();
+      LOG.info("Waiting for the running export with the same parameters");
+      try {
+        return runningExport.await(progress);
+      } catch (ExecutionException e) {
+        LOG.info("The running export with the same parameters failed, running the export again", e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Runs an export whose result is shared with the jobs waiting for it. The export is removed from the running
+   * exports before its result is completed, so that waiting jobs which retry after a failure do not find it again.
+   */
+  private CSVExportResult runShared(String key, SharedExport sharedExport, Export export, Consumer<Float> progress)
+          throws IOException, MimeTypeParseException {
+    try {
+      CSVExportResult result = export.run(p -> {
+        sharedExport.progress = p;
+        progress.accept(p);
+      });
+      runningExports.remove(key, sharedExport);
+      sharedExport.result.complete(result);
+      return result;
+    } catch (Exception | Error e) {
+      runningExports.remove(key, sharedExport);
+      sharedExport.result.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  @ManagedAttribute(description = "Number of export jobs which waited for the export of another job")
+  public long getCoalescedExports() {
+    return coalescedExports.sum();
+  }
+
+  @ManagedAttribute(description = "Number of exports currently running")
+  public int getRunningExports() {
+    return runningExports.size();
+  }
+
+  /**
+   * A running export whose result is shared.
+   */
+  private static class SharedExport {
+    private final CompletableFuture<CSVExportResult> result = new CompletableFuture<>();
+    private volatile float progress;
+
+    /**
+     * Waits for the result, reporting the progress of the export in the meantime.
+     */
+    private CSVExportResult await(Consumer<Float> progressConsumer) throws ExecutionException, InterruptedIOException {
+      while (true) {
+        try {
+          return result.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          progressConsumer.accept(progress);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for a running export");
+        }
+      }
+    }
+  }
+}
@@ -5,7 +5,6 @@ import com.coremedia.cap.common.BlobService;
 import com.coremedia.cap.content.Content;
 import com.coremedia.cap.content.ContentRepository;
 import com.coremedia.cap.user.User;
-import com.coremedia.rest.cap.content.search.SearchServiceResult;
 import com.coremedia.rest.cap.jobs.Job;
 import com.coremedia.rest.cap.jobs.JobContext;
 import com.coremedia.rest.cap.jobs.JobExecutionException;
@@ -21,7 +20,12 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import javax.activation.MimeTypeParseException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static java.lang.invoke.MethodHandles.lookup;
 
@@ -37,6 +41,12 @@ public class CSVExportJob implements Job {
 
   private final ContentRepository contentRepository;
 
+  private final CSVConfigurationProperties csvConfigurationProperties;
+
+  private final CSVExportCoalescer csvExportCoalescer;
+
+  private final CSVResultCache csvResultCache;
+
   private String name;
   private String query;
   private int limit;
@@ -54,11 +64,17 @@ public class CSVExportJob implements Job {
   public CSVExportJob(CSVExportAuthorization csvExportAuthorization,
                       CSVExportSearchService csvExportSearchService,
                       CSVFileRetriever csvFileRetriever,
-                      ContentRepository contentRepository) {
+                      ContentRepository contentRepository,
+                      CSVConfigurationProperties csvConfigurationProperties,
+                      CSVExportCoalescer csvExportCoalescer,
+                      CSVResultCache csvResultCache) {
     this.csvExportAuthorization = csvExportAuthorization;
     this.csvExportSearchService = csvExportSearchService;
     this.csvFileRetriever = csvFileRetriever;
     this.contentRepository = contentRepository;
+    this.csvConfigurationProperties = csvConfigurationProperties;
+    this.csvExportCoalescer = csvExportCoalescer;
+    this.csvResultCache = csvResultCache;
   }
 
   @Nullable
@@ -76,19 +92,19 @@ public class CSVExportJob implements Job {
     // create CMDownload to store export
     Content exportContent = null;
     try {
-      // perform search for content to export
-      SearchServiceResult result = csvExportSearchService.search(query, limit, sortCriteria, folderUri, includeSubFolders,
-              contentTypeNames, includeSubTypes, filterQueries, facetFieldCriteria, facetQueries, searchHandler);
-      exportContent = processResult(result, jobContext);
+      // identical jobs running at the same time share the export
+      CSVExportResult result = csvExportCoalescer.export(getExportKey(user), progress -> exportCSV(user, progress),
+              jobContext::notifyProgress);
+      exportContent = processResult(result);
       long duration = (System.currentTimeMillis() - start) / 1000;
       // also record some info in detailText
       StringBuilder detailText = new StringBuilder();
       detailText.append(DIV_NS);
-      detailText.append("<p>" + result.getHits().size() + " content items exported in " + duration + " seconds</p>");
+      detailText.append("<p>" + result.getContentCount() + " content items exported in " + duration + " seconds</p>");
       detailText.append("</div>");
       Markup info = MarkupFactory.fromString(detailText.toString());
       exportContent.set("detailText", info);
-      LOG.info("CSV Report generation successfully completed for {} content items in {}s for {} ", result.getHits().size(), duration, this);
+      LOG.info("CSV Report generation successfully completed for {} content items in {}s for {} ", result.getContentCount(), duration, this);
     } catch (IOException | MimeTypeParseException e) {
       LOG.error("Failed to retrieve CSV", e);
       throw new JobExecutionException(CSVExportJobErrorCode.RETRIEVAL_FAILED);
@@ -103,11 +119,127 @@ public class CSVExportJob implements Job {
     return exportContent;
   }
 
-  private Content processResult(SearchServiceResult result, JobContext jobContext) throws IOException, MimeTypeParseException {
-    InputStream is = csvFileRetriever.getInputStream(template, result.getHits(), jobContext);
+  /**
+   * Searches the content to export and retrieves its CSV, resuming from the checkpoint of a recent earlier run of the
+   * same export. A new export is served from the result cache if its contents have not changed since it was cached.
+   */
+  private CSVExportResult exportCSV(User user, Consumer<Float> progress) throws IOException, MimeTypeParseException {
+    Path checkpointDirectory = Paths.get(csvConfigurationProperties.getCheckpointDirectory());
+    CSVExportCheckpoint.deleteExpired(checkpointDirectory, csvConfigurationProperties.getCheckpointRetention());
+    // the settings are part of the key, so that a checkpoint is not resumed with changed settings or template
+    CSVExportCheckpoint checkpoint = CSVExportCheckpoint.open(checkpointDirectory,
+            user.getNameAtDomain() + ":" + csvExportSearchService.getSettingsVersion() + ":" + this,
+            csvConfigurationProperties.getCheckpointMaxResumeAge());
     BlobService blobService = contentRepository.getConnection().getBlobService();
-    Blob data = blobService.fromInputStream(is, "text/csv");
-    // create CMDownload with data
+    Blob data;
+    // a resumed export has been searched before the watermark of this run, so it is not cached
+    CSVResultCache.Lookup cached = null;
+    if (checkpoint.hasIds()) {
+      LOG.info("Resuming {} after {} of {} content items", this, checkpoint.getOffset(), checkpoint.getIdCount());
+    } else {
+      long watermark = csvResultCache.getWatermark();
+      // perform paged search for content to export, the IDs are stored with the checkpoint
+      CSVContentIdCursor contentIds = csvExportSearchService.searchIds(query, limit, sortCriteria, folderUri,
+              includeSubFolders, contentTypeNames, includeSubTypes, filterQueries, searchHandler);
+      checkpoint.writeIds(contentIds);
+      cached = csvResultCache.lookup(getExportKey(user), watermark, checkpoint.getRemainingIds());
+      checkpoint.close();
+      if (cached.isHit()) {
+        LOG.info("Serving {} from the result cache", this);
+        try (InputStream is = cached.getData()) {
+          data = blobService.fromInputStream(is, "text/csv");
+        }
+        checkpoint.delete();
+        return new CSVExportResult(data, checkpoint.getIdCount());
+      }
+    }
+    retrieveCSV(checkpoint, progress);
+    Path csvFile = checkpoint.getCSVFile();
+    // no CSV file is written if no content has been found
+    try (InputStream is = Files.exists(csvFile) ? Files.newInputStream(csvFile) : InputStream.nullInputStream()) {
+      data = blobService.fromInputStream(is, "text/csv");
+    }
+    if (cached != null && Files.exists(csvFile)) {
+      cached.store(csvFile, null);
+    }
+    checkpoint.delete();
+    return new CSVExportResult(data, checkpoint.getIdCount());
+  }
+
+  /**
+   * Builds the key by which identical jobs are coalesced and cached. Unless configured otherwise, results are only
+   * shared for the same user, as the search depends on the user's rights.
+   */
+  private String getExportKey(User user) {
+    String sharingUser = csvConfigurationProperties.isShareResultsAcrossUsers() ? null : user.getNameAtDomain();
+    return "job|" + CSVExportSearchService.getExportKey(sharingUser, csvExportSearchService.getSettingsVersion(),
+            template, query, limit, sortCriteria, folderUri, includeSubFolders, contentTypeNames, includeSubTypes,
+            filterQueries, searchHandler);
+  }
+
+  /**
+   * Retrieves the CSV of the remaining contents of the checkpoint. A batch is committed to the checkpoint once its
+   * CSV has been written. If a batch fails, the batches after the last committed one are retried with an exponential
+   * backoff, or after the delay requested by the preview CAE.
+   */
+  private void retrieveCSV(CSVExportCheckpoint checkpoint, Consumer<Float> progress) throws IOException {
+    int failedAttempts = 0;
+    while (!checkpoint.isComplete()) {
+      int offset = checkpoint.getOffset();
+      try (InputStream is = csvFileRetriever.getInputStream(template, checkpoint.getRemainingIds(), offset == 0,
+              batchSize -> {
+                checkpoint.commit(batchSize);
+                updateJobProgress(checkpoint, progress);
+              })) {
+        is.transferTo(checkpoint.openCSV());
+      } catch (IOException e) {
+        // only consecutive failures without any completed batch count against the retries
+        failedAttempts = checkpoint.getOffset() > offset ? 1 : failedAttempts + 1;
+        if (!isRetryable(e) || failedAttempts > csvConfigurationProperties.getBatchRetries()) {
+          throw e;
+        }
+        long backoff = getRetryBackoff(e, failedAttempts);
+        LOG.warn("Failed to retrieve CSV after {} of {} content items for {}, retrying in {}ms: {}",
+                checkpoint.getOffset(), checkpoint.getIdCount(), this, backoff, e.getMessage());
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting to retry " + this);
+        }
+      } finally {
+        checkpoint.close();
+      }
+    }
+  }
+
+  private boolean isRetryable(IOException e) {
+    if (e instanceof CSVRetrievalException) {
+      return ((CSVRetrievalException) e).isRetryable();
+    }
+    // connection failures and timeouts may be temporary, unless the job has been interrupted
+    return !Thread.currentThread().isInterrupted();
+  }
+
+  private long getRetryBackoff(IOException e, int failedAttempts) {
+    long maxBackoff = csvConfigurationProperties.getBatchRetryMaxBackoff().toMillis();
+    if (e instanceof CSVRetrievalException && ((CSVRetrievalException) e).getRetryAfterSeconds() >= 0) {
+      return Math.min(((CSVRetrievalException) e).getRetryAfterSeconds() * 1000, maxBackoff);
+    }
+    long backoff = csvConfigurationProperties.getBatchRetryBackoff().toMillis() << Math.min(failedAttempts - 1, 20);
+    return Math.min(backoff, maxBackoff);
+  }
+
+  private void updateJobProgress(CSVExportCheckpoint checkpoint, Consumer<Float> jobProgress) {
+    float progress = (float) checkpoint.getOffset() / (float) checkpoint.getIdCount();
+    // allow for some time to write the report
+    progress = progress * 0.95f;
+    jobProgress.accept(progress);
+  }
+
+  private Content processResult(CSVExportResult result) {
+    // create CMDownload with the data, which may be shared with coalesced jobs
+    Blob data = result.getData();
     User user = csvExportAuthorization.getCurrentUser();
     Content homeFolder = user.getHomeFolder();
     String exportContentName = name.replace('/', '-');
@@ -11,15 +11,24 @@ public class CSVExportJobFactory implements JobFactory {
   private final CSVExportSearchService csvExportSearchService;
   private final CSVFileRetriever csvFileRetriever;
   private final ContentRepository contentRepository;
+  private final CSVConfigurationProperties csvConfigurationProperties;
+  private final CSVExportCoalescer csvExportCoalescer;
+  private final CSVResultCache csvResultCache;
 
   public CSVExportJobFactory(CSVExportAuthorization csvExportAuthorization,
                              CSVExportSearchService csvExportSearchService,
                              CSVFileRetriever csvFileRetriever,
-                             ContentRepository contentRepository) {
+                             ContentRepository contentRepository,
+                             CSVConfigurationProperties csvConfigurationProperties,
+                             CSVExportCoalescer csvExportCoalescer,
+                             CSVResultCache csvResultCache) {
     this.csvExportAuthorization = csvExportAuthorization;
     this.csvExportSearchService = csvExportSearchService;
     this.csvFileRetriever = csvFileRetriever;
     this.contentRepository = contentRepository;
+    this.csvConfigurationProperties = csvConfigurationProperties;
+    this.csvExportCoalescer = csvExportCoalescer;
+    this.csvResultCache = csvResultCache;
   }
 
   @Override
@@ -31,6 +40,7 @@ public class CSVExportJobFactory implements JobFactory {
   @Override
   public Job createJob() {
     return new CSVExportJob(csvExportAuthorization, csvExportSearchService,
-            csvFileRetriever, contentRepository);
+            csvFileRetriever, contentRepository, csvConfigurationProperties, csvExportCoalescer,
+            csvResultCache);
   }
 }
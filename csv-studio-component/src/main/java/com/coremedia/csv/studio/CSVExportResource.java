@@ -4,6 +4,8 @@ import com.coremedia.csv.common.CSVConstants;
 import com.coremedia.rest.cap.content.SearchParameterNames;
 import com.coremedia.rest.cap.content.search.SearchServiceResult;
 import com.coremedia.rest.exception.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -11,10 +13,17 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
+import static java.lang.invoke.MethodHandles.lookup;
+
 /**
  * Handles Studio API requests for a CSV based on search parameters.
  */
@@ -22,6 +31,8 @@ import java.util.*;
 @RestController
 public class CSVExportResource {
 
+  private static final Logger LOG = LoggerFactory.getLogger(lookup().lookupClass());
+
   public static final String TEMPLATE_PARAMETER = "template";
 
   /**
@@ -39,10 +50,24 @@ public class CSVExportResource {
    */
   private final CSVFileRetriever csvFileRetriever;
 
-  public CSVExportResource(CSVExportAuthorization csvExportAuthorization, CSVExportSearchService csvExportSearchService, CSVFileRetriever csvFileRetriever) {
+  /**
+   * Serves repeated exports whose contents have not changed.
+   */
+  private final CSVResultCache csvResultCache;
+
+  /**
+   * Whether cached results are shared by users with different rights.
+   */
+  private final boolean shareResultsAcrossUsers;
+
+  public CSVExportResource(CSVExportAuthorization csvExportAuthorization, CSVExportSearchService csvExportSearchService,
+                           CSVFileRetriever csvFileRetriever, CSVResultCache csvResultCache,
+                           boolean shareResultsAcrossUsers) {
     this.csvExportAuthorization = csvExportAuthorization;
     this.csvExportSearchService = csvExportSearchService;
     this.csvFileRetriever = csvFileRetriever;
+    this.csvResultCache = csvResultCache;
+    this.shareResultsAcrossUsers = shareResultsAcrossUsers;
   }
 
   /**
@@ -74,28 +99,83 @@ public class CSVExportResource {
       return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
     }
 
-    // Query SearchService with the provided parameters
+    // Query SearchService with the provided parameters, the watermark is taken before so that changes made during
+    // the search invalidate the cached result
+    long watermark = csvResultCache.getWatermark();
     SearchServiceResult result = csvExportSearchService.search(query, limit, sortCriteria, folderUri, includeSubFolders,
             contentTypeNames, includeSubTypes, filterQueries, facetFieldCriteria, facetQueries, searchHandler);
 
+    // Serve the export from the cache if none of the found contents has changed
+    String sharingUser = shareResultsAcrossUsers ? null : csvExportAuthorization.getCurrentUser().getNameAtDomain();
+    String key = "contentset|" + CSVExportSearchService.getExportKey(sharingUser,
+            csvExportSearchService.getSettingsVersion(), csvTemplate, query, limit, sortCriteria, folderUri,
+            includeSubFolders, contentTypeNames, includeSubTypes, filterQueries, searchHandler);
+    CSVResultCache.Lookup cached = csvResultCache.lookup(key, watermark, CSVContentIdSource.of(result.getHits()));
+    if (cached.isHit()) {
+      InputStream data = cached.getData();
+      return csvResponse(cached.getContentDispositionHeaderValue(), outputStream -> {
+        try (InputStream in = data) {
+          in.transferTo(outputStream);
+        }
+      });
+    }
+
     // Use the CSVFileRetriever to request the file data from the CAE
     CSVFileResponse csvFileResponse = csvFileRetriever.retrieveCSV(csvTemplate, result.getHits(), true);
 
     // Build response, re-using Content-Disposition header value with file name
     if(csvFileResponse.getStatus() < 300) {
-      if (csvFileResponse.getContentDispositionHeaderValue() != null) {
-        return ResponseEntity.ok()
-                .header(CSVConstants.HTTP_HEADER_CONTENT_DISPOSITION, csvFileResponse.getContentDispositionHeaderValue())
-                .contentType(MediaType.valueOf(CSVConstants.CSV_MEDIA_TYPE))
-                .body(csvFileResponse.getData());
-      }
+      // the remaining batches are written to the response as they arrive from the CAE, and to the cache
+      InputStream data = csvFileResponse.getData();
+      String contentDisposition = csvFileResponse.getContentDispositionHeaderValue();
+      return csvResponse(contentDisposition, outputStream -> {
+        Path cacheFile = csvResultCache.createTempFile();
+        boolean complete = false;
+        try (InputStream in = data; OutputStream cacheOut = Files.newOutputStream(cacheFile)) {
+          byte[] buffer = new byte[8192];
+          int read;
+          while ((read = in.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+            cacheOut.write(buffer, 0, read);
+          }
+          complete = true;
+        } finally {
+          storeResult(cached, cacheFile, contentDisposition, complete);
+        }
+      });
+    }
+    return ResponseEntity.status(csvFileResponse.getStatus())
+            .contentType(MediaType.valueOf(CSVConstants.CSV_MEDIA_TYPE))
+            .build();
+  }
+
+  private static ResponseEntity<StreamingResponseBody> csvResponse(String contentDisposition, StreamingResponseBody body) {
+    if (contentDisposition != null) {
       return ResponseEntity.ok()
+              .header(CSVConstants.HTTP_HEADER_CONTENT_DISPOSITION, contentDisposition)
               .contentType(MediaType.valueOf(CSVConstants.CSV_MEDIA_TYPE))
-              .body(csvFileResponse.getData());
+              .body(body);
     }
-    return ResponseEntity.status(csvFileResponse.getStatus())
+    return ResponseEntity.ok()
             .contentType(MediaType.valueOf(CSVConstants.CSV_MEDIA_TYPE))
-            .body(csvFileResponse.getData());
+            .body(body);
+  }
+
+  /**
+   * Stores the CSV of a missed export in the cache, or discards it if the export has not been sent completely. The
+   * response has been sent at this point, so a failure is only logged.
+   */
+  private static void storeResult(CSVResultCache.Lookup cached, Path cacheFile, String contentDisposition,
+                                  boolean complete) {
+    try {
+      if (complete) {
+        cached.store(cacheFile, contentDisposition);
+      } else {
+        Files.deleteIfExists(cacheFile);
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to store CSV file {} in the result cache", cacheFile, e);
+    }
   }
 
 }
@@ -0,0 +1,48 @@
+package com.coremedia.csv.studio;
+
+import com.coremedia.cap.common.Blob;
+
+/**
+ * The CSV of an export, which may be shared by several coalesced export jobs.
+ */
+public class CSVExportResult {
+
+  /**
+   * The CSV file.
+   */
+  private final Blob data;
+
+  /**
+   * The number of exported content items.
+   */
+  private final int contentCount;
+
+  /**
+   * Constructor.
+   *
+   * @param data         The CSV file
+   * @param contentCount The number of exported content items
+   */
+  public CSVExportResult(Blob data, int contentCount) {
+    this.data = data;
+    this.contentCount = contentCount;
+  }
+
+  /**
+   * Get the CSV file.
+   *
+   * @return The CSV file
+   */
+  public Blob getData() {
+    return data;
+  }
+
+  /**
+   * Get the number of exported content items.
+   *
+   * @return The number of exported content items
+   */
+  public int getContentCount() {
+    return contentCount;
+  }
+}
@@ -3,6 +3,7 @@ package com.coremedia.csv.studio;
 import com.coremedia.cap.content.Content;
 import com.coremedia.cap.content.ContentRepository;
 import com.coremedia.cap.content.ContentType;
+import com.coremedia.csv.common.CSVConfig;
 import com.coremedia.rest.cap.content.search.CapObjectFormat;
 import com.coremedia.rest.cap.content.search.QueryUriResolver;
 import com.coremedia.rest.cap.content.search.SearchService;
@@ -14,6 +15,11 @@ import com.coremedia.rest.linking.LinkResolverUtil;
 import java.util.*;
 
 public class CSVExportSearchService {
+  /**
+   * The index field by which paged searches are sorted and continued.
+   */
+  private static final String NUMERIC_ID_FIELD = "numericid";
+
   /**
    * The content repository from which to retrieve content.
    */
@@ -36,16 +42,23 @@ public class CSVExportSearchService {
 
   private final int defaultItemLimit;
 
+  /**
+   * The number of content IDs searched at once by {@link #searchIds}.
+   */
+  private final int searchPageSize;
+
   public CSVExportSearchService(ContentRepository contentRepository,
                                 SearchService searchService,
                                 CapObjectFormat capObjectFormat,
                                 LinkResolver linkResolver,
-                                int defaultItemLimit) {
+                                int defaultItemLimit,
+                                int searchPageSize) {
     this.contentRepository = contentRepository;
     this.searchService = searchService;
     this.capObjectFormat = capObjectFormat;
     this.linkResolver = linkResolver;
     this.defaultItemLimit = defaultItemLimit;
+    this.searchPageSize = searchPageSize;
   }
 
   public SearchServiceResult search(String query, int limit, List<String> sortCriteria, String folderUri, Boolean includeSubFolders, Set<String> contentTypeNames, Boolean includeSubTypes, List<String> filterQueries, List<String> facetFieldCriteria, List<String> facetQueries, String searchHandler) {
@@ -69,6 +82,81 @@ public class CSVExportSearchService {
 
   }
 
+  /**
+   * Searches the IDs of the content to export page by page, so that results beyond the limit of the SearchService can
+   * be exported. Results which fit into a single page are sorted by the given sort criteria. Larger results are paged
+   * by content ID: each page continues after the last ID of the previous page, and the sort criteria are ignored.
+   *
+   * @return a cursor over the numeric IDs of the result, which searches the pages as they are read
+   */
+  public CSVContentIdCursor searchIds(String query, int limit, List<String> sortCriteria, String folderUri, Boolean includeSubFolders, Set<String> contentTypeNames, Boolean includeSubTypes, List<String> filterQueries, String searchHandler) {
+    final Collection<ContentType> contentTypes = getContentTypes(contentTypeNames);
+    final Content folderFilter = getFolder(folderUri);
+    final QueryUriResolver uriResolver = new QueryUriResolver(linkResolver, capObjectFormat);
+    final List<String> resolvedFilterQueries = uriResolver.resolveUris(filterQueries);
+    final List<String> resolvedSortCriteria = uriResolver.resolveUris(sortCriteria);
+
+    boolean includeSubFoldersValue = includeSubFolders == null ? true : includeSubFolders;
+    boolean includeSubTypesValue = includeSubTypes == null ? true : includeSubTypes;
+
+    if (limit == -1 && defaultItemLimit != -1)
+      limit = defaultItemLimit;
+
+    boolean singlePage = limit >= 0 && limit <= searchPageSize;
+    List<String> idSortCriteria = Collections.singletonList(NUMERIC_ID_FIELD + " asc");
+    CSVContentIdCursor.PageSearch pageSearch = (lastId, pageLimit) -> {
+      if (singlePage) {
+        return searchService.search(query, pageLimit, resolvedSortCriteria, folderFilter, includeSubFoldersValue,
+                contentTypes, includeSubTypesValue, resolvedFilterQueries, null, null, searchHandler);
+      }
+      List<String> pageFilterQueries = new ArrayList<>();
+      if (resolvedFilterQueries != null)
+        pageFilterQueries.addAll(resolvedFilterQueries);
+      if (lastId != -1)
+        pageFilterQueries.add(NUMERIC_ID_FIELD + ":{" + lastId + " TO *]");
+      return searchService.search(query, pageLimit, idSortCriteria, folderFilter, includeSubFoldersValue,
+              contentTypes, includeSubTypesValue, pageFilterQueries, null, null, searchHandler);
+    };
+    return new CSVContentIdCursor(pageSearch, searchPageSize, limit, singlePage);
+  }
+
+  /**
+   * Gets the version of the reporting settings, which define the columns of the templates. The version is part of the
+   * export keys, so that a changed template is not answered with a CSV of the previous columns.
+   *
+   * @return the ID and modification time of the reporting settings document, or an empty string if there is none
+   */
+  public String getSettingsVersion() {
+    Content settings = contentRepository.getChild(CSVConfig.DEFAULT_SETTINGS_PATH);
+    if (settings == null) {
+      return "";
+    }
+    Calendar modificationDate = settings.getModificationDate();
+    return settings.getId() + '@' + (modificationDate == null ? "" : modificationDate.getTimeInMillis());
+  }
+
+  /**
+   * Builds a key which identifies the result of an export, from the normalized search parameters and the template.
+   *
+   * @param user            the user whose rights the search respects, or null if the result is shared across users
+   * @param settingsVersion the {@link #getSettingsVersion() version} of the reporting settings defining the template
+   * @return the key of the export
+   */
+  public static String getExportKey(String user, String settingsVersion, String template, String query, int limit, List<String> sortCriteria, String folderUri, Boolean includeSubFolders, Set<String> contentTypeNames, Boolean includeSubTypes, List<String> filterQueries, String searchHandler) {
+    return (user == null ? "" : user) +
+            '|' + settingsVersion +
+            '|' + template +
+            '|' + (query == null ? "" : query.trim()) +
+            '|' + limit +
+            '|' + sortCriteria +
+            '|' + folderUri +
+            '|' + (includeSubFolders == null || includeSubFolders) +
+            '|' + (contentTypeNames == null ? null : new TreeSet<>(contentTypeNames)) +
+            '|' + (includeSubTypes == null || includeSubTypes) +
+            '|' + (filterQueries == null ? null : new TreeSet<>(filterQueries)) +
+            '|' + searchHandler;
+  }
+
   // ---------- COPIED FROM ContentRepositoryResource.java ----------
 
   /**
@@ -1,5 +1,7 @@
 package com.coremedia.csv.studio;
 
+import java.io.InputStream;
+
 /**
  * Captures data from the response from a request to an export endpoint.
  */
@@ -11,9 +13,9 @@ public class CSVFileResponse {
   private String contentDispositionHeaderValue;
 
   /**
-   * The response body.
+   * The response body, which is streamed from the preview CAE.
    */
-  private byte[] data;
+  private InputStream data;
 
   /**
    * The status code of the HTTP response.
@@ -23,11 +25,11 @@ public class CSVFileResponse {
   /**
    * Constructor.
    *
-   * @param data   The response body
+   * @param data   The response body, or null if the request failed
    * @param status The status code of the HTTP response
    * @param header The Content-Disposition header value
    */
-  public CSVFileResponse(byte[] data, int status, String header) {
+  public CSVFileResponse(InputStream data, int status, String header) {
     this.contentDispositionHeaderValue = header;
     this.status = status;
     this.data = data;
@@ -43,11 +45,11 @@ public class CSVFileResponse {
   }
 
   /**
-   * Get the response body.
+   * Get the response body. The stream must be closed to release the connections to the preview CAE.
    *
-   * @return The response body
+   * @return The response body, or null if the request failed
    */
-  public byte[] getData() {
+  public InputStream getData() {
     return data;
   }
 
@@ -1,30 +1,43 @@
 package com.coremedia.csv.studio;
 
-import com.coremedia.cap.common.IdHelper;
 import com.coremedia.cap.content.Content;
 import com.coremedia.csv.common.CSVConstants;
-import com.coremedia.rest.cap.jobs.JobContext;
-import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import static java.lang.invoke.MethodHandles.lookup;
 
 /**
  * Retrieves a CSV file from the preview CAE
  */
 public class CSVFileRetriever {
 
+  private static final Logger LOG = LoggerFactory.getLogger(lookup().lookupClass());
+
   /**
    * The URL to use for calls to the preview CAE from the studio REST API.
    */
@@ -35,35 +48,70 @@ public class CSVFileRetriever {
    */
   private final int batchSize;
 
-  public CSVFileRetriever(String previewRestUrlPrefix, int batchSize) {
+  /**
+   * The shared, pooled client for the requests to the preview CAE.
+   */
+  private final CloseableHttpClient httpClient;
+
+  /**
+   * The number of batches which are requested from the preview CAE at the same time when using async Studio Job.
+   */
+  private final int concurrentBatches;
+
+  /**
+   * The executor which fetches the batches if more than one batch is requested at the same time.
+   */
+  private final Executor fetchExecutor;
+
+  public CSVFileRetriever(String previewRestUrlPrefix, int batchSize, CloseableHttpClient httpClient,
+                          int concurrentBatches, Executor fetchExecutor) {
     this.previewRestUrlPrefix = previewRestUrlPrefix;
     this.batchSize = batchSize;
+    this.httpClient = httpClient;
+    this.concurrentBatches = Math.max(concurrentBatches, 1);
+    this.fetchExecutor = fetchExecutor;
   }
 
   /**
-   * Queries the CSV export endpoint on the preview CAE and returns a CSV file.
+   * Queries the CSV export endpoint on the preview CAE and returns a CSV file. The contents are requested in batches,
+   * which are streamed as they arrive. The first batch is requested before this method returns, so that the status
+   * and the file name are known before the file is read.
    *
    * @param contents The content items to include in the CSV
-   * @return A CSVFileResponse containing the bytes and name information of the returned file
+   * @return A CSVFileResponse containing the stream and name information of the returned file
    * @throws IOException Thrown when a request to the CAE fails
    */
   public CSVFileResponse retrieveCSV(String csvTemplate, List<Content> contents, boolean includeHeader) throws IOException {
+    // Use the numeric IDs
+    BatchedInputStream file = new BatchedInputStream(csvTemplate, CSVContentIdSource.of(contents), includeHeader,
+            batchSize -> {});
+    try {
+      file.open();
+    } catch (CSVRetrievalException e) {
+      return new CSVFileResponse(null, e.getStatus(), null);
+    }
+    return new CSVFileResponse(file, HttpStatus.SC_OK, file.getContentDispositionHeaderValue());
+  }
+
+  /**
+   * Queries the CSV export endpoint on the preview CAE without reading the response body.
+   *
+   * @param contentIds The numeric IDs of the content items to include in the CSV
+   * @return The response of the CAE, which must be closed by the caller to release its connection
+   * @throws IOException Thrown when a request to the CAE fails
+   */
+  private CloseableHttpResponse openCSV(String csvTemplate, int[] contentIds, boolean includeHeader) throws IOException {
     // Create a comma-separated list of content IDs for the request body
     StringBuilder contentIdsList = new StringBuilder();
     contentIdsList.append('[');
-    Iterator<Content> contentsIterator = contents.iterator();
-    while (contentsIterator.hasNext()) {
-      String contentId = contentsIterator.next().getId();
-      // Use the numeric ID
-      int parsed = IdHelper.parseContentId(contentId);
-      contentIdsList.append(parsed);
-      if (contentsIterator.hasNext())
+    for (int i = 0; i < contentIds.length; i++) {
+      if (i > 0)
         contentIdsList.append(",");
+      contentIdsList.append(contentIds[i]);
     }
     contentIdsList.append(']');
 
     // Set up a POST request to the content set export endpoint
-    CloseableHttpClient client = HttpClients.createDefault();
     String requestUrl = previewRestUrlPrefix + "/contentsetexport";
     if (!includeHeader)
       requestUrl = requestUrl + "noheader";
@@ -73,75 +121,404 @@ public class CSVFileRetriever {
     HttpEntity requestEntity = new StringEntity(contentIdsList.toString());
     httpPost.setEntity(requestEntity);
 
-    CloseableHttpResponse response = null;
-    try {
-      // Execute request and extract info from response
-      response = client.execute(httpPost);
-      Header contentDispositionHeader = response.getFirstHeader(CSVConstants.HTTP_HEADER_CONTENT_DISPOSITION);
-      String headerValue = contentDispositionHeader == null ? null : contentDispositionHeader.getValue();
-      HttpEntity responseEntity = response.getEntity();
-      byte[] file = responseEntity == null ? null : IOUtils.toByteArray(responseEntity.getContent());
-      return new CSVFileResponse(file, response.getStatusLine().getStatusCode(), headerValue);
-    } finally {
-      if (response != null) {
-        response.close();
-      }
-      client.close();
-    }
+    return httpClient.execute(httpPost);
+  }
+
+  /**
+   * Streams the CSV of a list of contents, which is fetched from the preview CAE in batches.
+   *
+   * @param contentIds    The IDs of the content items to include in the CSV
+   * @param includeHeader Whether the CSV starts with the header row
+   * @param batchListener The listener which is notified when a batch has been read completely
+   * @return The stream of the CSV, which must be closed to release pending requests
+   */
+  public InputStream getInputStream(String csvTemplate, CSVContentIdSource contentIds, boolean includeHeader,
+                                    BatchListener batchListener) {
+    return new BatchedInputStream(csvTemplate, contentIds, includeHeader, batchListener);
   }
 
-  public InputStream getInputStream(String csvTemplate, List<Content> contents, JobContext jobContext) {
-    return new BatchedInputStream(csvTemplate, contents, jobContext);
+  /**
+   * Is notified when the CSV of a batch has been read completely.
+   */
+  @FunctionalInterface
+  public interface BatchListener {
+
+    /**
+     * Called by the reading thread after the last byte of a batch has been read, before any byte of the next batch
+     * is read.
+     *
+     * @param batchSize the number of contents of the batch
+     * @throws IOException if the listener fails, which fails the read
+     */
+    void batchCompleted(int batchSize) throws IOException;
   }
 
+  /**
+   * Streams the CSV of a list of contents, which is fetched from the preview CAE in batches. The content IDs are
+   * read page by page from the source as the batches are requested. The response bodies are
+   * not buffered in memory, so the memory used does not depend on the size of the report. If batches are fetched one
+   * after another, each response is piped through while it is read. Up to {@link #concurrentBatches} batches are
+   * requested at the same time otherwise; their responses are spooled to temporary files, so that a batch ahead of the
+   * one being read does not hold an export slot of the preview CAE while nobody reads it.
+   */
   private class BatchedInputStream extends InputStream {
     private final String csvTemplate;
-    private final int totalSize;
-    private final JobContext jobContext;
-    private List<Content> remainingContents;
-    private byte[] currentBatchData;
-    private int currentBatchIndex;
+    private final CSVContentIdSource contentIds;
+    private final BatchListener batchListener;
+    private int[] currentPage = new int[0];
+    private int currentPageIndex;
+    private boolean allRequested;
+    private final Deque<PendingBatch> pendingBatches = new ArrayDeque<>();
+    private final byte[] singleByte = new byte[1];
+    private PendingBatch currentBatch;
+    private InputStream currentBatchData;
     private boolean initialBatch;
+    private boolean closed;
+    private String contentDispositionHeaderValue;
 
-    public BatchedInputStream(String csvTemplate, List<Content> contents, JobContext jobContext) {
+    public BatchedInputStream(String csvTemplate, CSVContentIdSource contentIds, boolean includeHeader,
+                              BatchListener batchListener) {
       this.csvTemplate = csvTemplate;
-      this.totalSize = contents.size();
-      this.jobContext = jobContext;
-      this.remainingContents = contents;
-      this.currentBatchIndex = 0;
-      this.initialBatch = true;
+      this.contentIds = contentIds;
+      this.batchListener = batchListener;
+      this.initialBatch = includeHeader;
+    }
+
+    /**
+     * Waits for the response of the first batch.
+     *
+     * @throws IOException if the first batch cannot be fetched
+     */
+    public void open() throws IOException {
+      if (currentBatchData == null)
+        nextBatch();
+    }
+
+    /**
+     * Gets the Content-Disposition header of the first batch, which captures the file name.
+     *
+     * @return The Content-Disposition header value, or null if the first batch has not been opened
+     */
+    public String getContentDispositionHeaderValue() {
+      return contentDispositionHeaderValue;
     }
 
     @Override
     public int read() throws IOException {
-      boolean hasData = (currentBatchData != null) && (currentBatchIndex < currentBatchData.length);
-      if (hasData)
-        return Byte.toUnsignedInt(currentBatchData[currentBatchIndex++]);
-      // check if we have remaining content to fetch
-      if (remainingContents.isEmpty())
-        return -1;
-      // fetch next batch
-      int toIndex = Math.min(batchSize, remainingContents.size());
-      List<Content> contents = remainingContents.subList(0, toIndex);
-      remainingContents = remainingContents.subList(toIndex, remainingContents.size());
-      CSVFileResponse csvFileResponse = retrieveCSV(csvTemplate, contents, initialBatch);
-      initialBatch = false;
-      updateJobProgress();
-      int status = csvFileResponse.getStatus();
-      if (status < 300) {
-        currentBatchData = csvFileResponse.getData();
-        currentBatchIndex = 0;
-        return read();
-      } else {
-        throw new IOException("retrieveCSV returned status code " + status);
-      }
-    }
-
-    private void updateJobProgress() {
-      float progress = ((float) totalSize - (float) remainingContents.size()) / (float) totalSize;
-      // allow for some time to write the report
-      progress = progress * 0.95f;
-      jobContext.notifyProgress(progress);
+      int count;
+      do {
+        count = read(singleByte, 0, 1);
+      } while (count == 0);
+      return count < 0 ? -1 : Byte.toUnsignedInt(singleByte[0]);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (closed)
+        throw new IOException("Stream closed");
+      if (length == 0)
+        return 0;
+      while (true) {
+        if (currentBatchData == null && !nextBatch())
+          return -1;
+        int count;
+        try {
+          count = currentBatchData.read(buffer, offset, length);
+        } catch (IOException e) {
+          close();
+          throw e;
+        }
+        if (count >= 0)
+          return count;
+        finishCurrentBatch();
+      }
+    }
+
+    @Override
+    public void close() {
+      if (closed)
+        return;
+      closed = true;
+      if (currentBatch != null) {
+        // the connection of a partially read response is closed instead of being returned to the pool
+        currentBatch.cancel();
+        currentBatch = null;
+        currentBatchData = null;
+      }
+      cancelPendingBatches();
+    }
+
+    /**
+     * Waits for the response of the next batch in content order and makes it the current batch.
+     *
+     * @return false if all batches have been read
+     * @throws IOException if the batch cannot be fetched
+     */
+    private boolean nextBatch() throws IOException {
+      requestBatches();
+      PendingBatch batch = pendingBatches.poll();
+      if (batch == null)
+        return false;
+      currentBatch = batch;
+      try {
+        batch.await();
+        if (batch.status >= 300)
+          throw new CSVRetrievalException(batch.status, batch.retryAfterSeconds);
+        if (contentDispositionHeaderValue == null)
+          contentDispositionHeaderValue = batch.contentDisposition;
+        currentBatchData = batch.openData();
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+      // request the batch which replaces the current one while the current batch is read
+      requestBatches();
+      return true;
+    }
+
+    /**
+     * Releases the fully read current batch and notifies the batch listener.
+     *
+     * @throws IOException if the response cannot be closed or the listener fails
+     */
+    private void finishCurrentBatch() throws IOException {
+      // the entity has been consumed, so closing the response returns the connection to the pool, or the spooled
+      // data is deleted
+      currentBatch.close();
+      int completedContents = currentBatch.size;
+      currentBatch = null;
+      currentBatchData = null;
+      try {
+        batchListener.batchCompleted(completedContents);
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    /**
+     * Requests further batches until {@link #concurrentBatches} batches are pending or all contents are requested.
+     */
+    private void requestBatches() {
+      while (pendingBatches.size() < concurrentBatches) {
+        int[] batchIds = nextBatchIds();
+        // the header row is requested even if there are no contents
+        if (batchIds.length == 0 && !initialBatch)
+          return;
+        PendingBatch batch = new PendingBatch(csvTemplate, batchIds, initialBatch, concurrentBatches > 1);
+        initialBatch = false;
+        if (concurrentBatches > 1) {
+          fetchExecutor.execute(batch.fetch);
+        }
+        pendingBatches.add(batch);
+      }
+    }
+
+    /**
+     * Takes the IDs of the next batch from the cursor, searching further pages as needed.
+     *
+     * @return the IDs of the next batch, an empty array if all IDs have been requested
+     */
+    private int[] nextBatchIds() {
+      int[] batchIds = new int[batchSize];
+      int count = 0;
+      while (count < batchSize && !allRequested) {
+        if (currentPageIndex == currentPage.length) {
+          currentPage = contentIds.nextPage();
+          currentPageIndex = 0;
+          allRequested = currentPage.length == 0;
+          continue;
+        }
+        int length = Math.min(batchSize - count, currentPage.length - currentPageIndex);
+        System.arraycopy(currentPage, currentPageIndex, batchIds, count, length);
+        currentPageIndex += length;
+        count += length;
+      }
+      return count == batchSize ? batchIds : Arrays.copyOf(batchIds, count);
+    }
+
+    private void cancelPendingBatches() {
+      for (PendingBatch batch : pendingBatches) {
+        batch.cancel();
+      }
+      pendingBatches.clear();
+    }
+  }
+
+  /**
+   * Reads the Retry-After header of a response.
+   *
+   * @param response the response of the preview CAE
+   * @return the number of seconds of the Retry-After header, or -1 if the header is missing or an HTTP date
+   */
+  private static long getRetryAfterSeconds(CloseableHttpResponse response) {
+    Header retryAfterHeader = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+    if (retryAfterHeader == null)
+      return -1;
+    try {
+      return Long.parseLong(retryAfterHeader.getValue().trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * A batch which has been requested from the preview CAE. The response of the batch is either kept open until the
+   * batch is read or cancelled, or spooled to a temporary file so that its connection and the export slot of the
+   * preview CAE are released right away.
+   */
+  private class PendingBatch {
+    private final FutureTask<Void> fetch;
+    private final int size;
+    private CloseableHttpResponse response;
+    private Path spoolFile;
+    private InputStream spoolData;
+    private boolean cancelled;
+    // the status and headers of the response, set by the fetch
+    private int status;
+    private long retryAfterSeconds;
+    private String contentDisposition;
+
+    private PendingBatch(String csvTemplate, int[] contentIds, boolean includeHeader, boolean spool) {
+      this.size = contentIds.length;
+      this.fetch = new FutureTask<>(() -> {
+        CloseableHttpResponse openedResponse = openCSV(csvTemplate, contentIds, includeHeader);
+        setResponse(openedResponse);
+        status = openedResponse.getStatusLine().getStatusCode();
+        retryAfterSeconds = getRetryAfterSeconds(openedResponse);
+        Header contentDispositionHeader = openedResponse.getFirstHeader(CSVConstants.HTTP_HEADER_CONTENT_DISPOSITION);
+        contentDisposition = contentDispositionHeader == null ? null : contentDispositionHeader.getValue();
+        if (spool && status < 300) {
+          spool(openedResponse);
+        }
+        return null;
+      });
+    }
+
+    /**
+     * Waits for the response of the batch. A batch which has not been handed to the fetch executor is fetched by the
+     * calling thread.
+     *
+     * @throws IOException if the request fails or the thread is interrupted
+     */
+    private void await() throws IOException {
+      // no-op if the executor has already run the task
+      fetch.run();
+      try {
+        fetch.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a CSV batch");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException("Failed to retrieve CSV batch", cause);
+      }
+    }
+
+    /**
+     * Opens the CSV data of a fetched batch.
+     *
+     * @return the spooled data or the body of the open response
+     * @throws IOException if the data cannot be opened
+     */
+    private synchronized InputStream openData() throws IOException {
+      if (cancelled)
+        throw new IOException("CSV batch cancelled");
+      if (spoolFile != null) {
+        spoolData = Files.newInputStream(spoolFile);
+        return spoolData;
+      }
+      HttpEntity entity = response == null ? null : response.getEntity();
+      return entity == null ? InputStream.nullInputStream() : entity.getContent();
+    }
+
+    private synchronized void setResponse(CloseableHttpResponse openedResponse) throws IOException {
+      if (cancelled) {
+        // the batch has been cancelled while its request was running
+        openedResponse.close();
+        throw new InterruptedIOException("CSV batch cancelled");
+      }
+      response = openedResponse;
+    }
+
+    /**
+     * Copies the body of the response to a temporary file and closes the response.
+     */
+    private void spool(CloseableHttpResponse openedResponse) throws IOException {
+      Path file = Files.createTempFile("csv-batch-", ".csv");
+      try {
+        HttpEntity entity = openedResponse.getEntity();
+        if (entity != null) {
+          try (InputStream data = entity.getContent()) {
+            Files.copy(data, file, StandardCopyOption.REPLACE_EXISTING);
+          }
+        }
+        synchronized (this) {
+          if (!cancelled) {
+            spoolFile = file;
+            file = null;
+          }
+        }
+      } finally {
+        if (file != null) {
+          Files.deleteIfExists(file);
+        }
+        close(openedResponse);
+      }
+    }
+
+    /**
+     * Closes the response or deletes the spooled data of a batch which has been read completely.
+     */
+    private void close() throws IOException {
+      CloseableHttpResponse openedResponse;
+      Path file;
+      InputStream data;
+      synchronized (this) {
+        openedResponse = response;
+        file = spoolFile;
+        data = spoolData;
+        response = null;
+        spoolFile = null;
+        spoolData = null;
+      }
+      close(openedResponse);
+      if (data != null) {
+        data.close();
+      }
+      if (file != null) {
+        Files.deleteIfExists(file);
+      }
+    }
+
+    private void close(CloseableHttpResponse openedResponse) throws IOException {
+      synchronized (this) {
+        if (response == openedResponse) {
+          response = null;
+        }
+      }
+      if (openedResponse != null) {
+        openedResponse.close();
+      }
+    }
+
+    /**
+     * Cancels the batch, aborting its request or discarding its response.
+     */
+    private void cancel() {
+      synchronized (this) {
+        cancelled = true;
+      }
+      fetch.cancel(true);
+      try {
+        // also aborts a response which is being spooled
+        close();
+      } catch (IOException e) {
+        LOG.debug("Failed to release a cancelled CSV batch", e);
+      }
     }
   }
 }
@@ -0,0 +1,100 @@
+package com.coremedia.csv.studio;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared, pooled HTTP client for the requests to the preview CAE. Connections are kept alive between the batches of an
+ * export and between exports, so that not every batch needs a new TCP connection.
+ */
+@ManagedResource(description = "Connection pool for the requests of the CSV exports to the preview CAE")
+public class CSVHttpClientPool implements Closeable {
+
+  /**
+   * The pool of the connections to the preview CAE.
+   */
+  private final PoolingHttpClientConnectionManager connectionManager;
+
+  /**
+   * The client which leases its connections from the pool.
+   */
+  private final CloseableHttpClient httpClient;
+
+  public CSVHttpClientPool(CSVConfigurationProperties properties) {
+    connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(properties.getHttpMaxConnections());
+    connectionManager.setDefaultMaxPerRoute(properties.getHttpMaxConnectionsPerRoute());
+    // connections closed by the CAE while idle in the pool are detected before they are reused
+    connectionManager.setValidateAfterInactivity(1000);
+
+    RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout((int) properties.getHttpConnectTimeout().toMillis())
+            .setConnectionRequestTimeout((int) properties.getHttpConnectionRequestTimeout().toMillis())
+            .setSocketTimeout((int) properties.getHttpSocketTimeout().toMillis())
+            .build();
+
+    long keepAliveMillis = properties.getHttpKeepAlive().toMillis();
+    ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+      long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+      return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMillis) : keepAliveMillis;
+    };
+
+    httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .evictExpiredConnections()
+            .evictIdleConnections(properties.getHttpIdleConnectionTimeout().toMillis(), TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  /**
+   * Gets the shared HTTP client. The client must not be closed by its users.
+   *
+   * @return the shared HTTP client
+   */
+  public CloseableHttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  @ManagedAttribute(description = "Number of connections currently in use")
+  public int getLeasedConnections() {
+    return getTotalStats().getLeased();
+  }
+
+  @ManagedAttribute(description = "Number of requests waiting for a connection")
+  public int getPendingConnections() {
+    return getTotalStats().getPending();
+  }
+
+  @ManagedAttribute(description = "Number of idle connections in the pool")
+  public int getAvailableConnections() {
+    return getTotalStats().getAvailable();
+  }
+
+  @ManagedAttribute(description = "Maximum number of connections")
+  public int getMaxConnections() {
+    return getTotalStats().getMax();
+  }
+
+  private PoolStats getTotalStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  @Override
+  public void close() throws IOException {
+    // also shuts down the connection manager and the idle connection evictor
+    httpClient.close();
+  }
+}
@@ -0,0 +1,144 @@
+package com.coremedia.csv.studio;
+
+import com.coremedia.cap.common.IdHelper;
+import com.coremedia.cap.content.ContentRepository;
+import com.coremedia.cap.content.ContentType;
+import com.coremedia.cap.content.events.ContentEvent;
+import com.coremedia.cap.content.events.ContentRepositoryListener;
+import com.coremedia.cap.content.events.ContentRepositoryListenerBase;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks changes of the content repository as seen by this Studio. The watermark is advanced with every content
+ * event, and the watermark of the last change is remembered for each changed content, so that the results of
+ * exports can be checked for changes of their contents. Exports also contain values of linked contents, such as the
+ * paths of taxonomies or the URLs of pages, so the watermark of the last change of any content of the linked content
+ * types is remembered as well.
+ */
+public class CSVRepositoryWatermark implements Closeable {
+
+  /**
+   * The maximum number of changed contents which are tracked. If more contents change, the tracked changes are
+   * discarded and all results computed before are considered changed.
+   */
+  private static final int MAX_TRACKED_CHANGES = 100_000;
+
+  private final ContentRepository contentRepository;
+
+  /**
+   * The number of content events received.
+   */
+  private final AtomicLong watermark = new AtomicLong();
+
+  /**
+   * The watermark of the last change by numeric content ID.
+   */
+  private final Map<Integer, Long> changes = new ConcurrentHashMap<>();
+
+  /**
+   * The watermark up to which changes are no longer tracked.
+   */
+  private volatile long trackedSince;
+
+  /**
+   * The names of the content types whose changes may change the exports of other contents.
+   */
+  private final List<String> linkedContentTypes;
+
+  /**
+   * Whether a content type is one of the linked content types, or a subtype of one of them.
+   */
+  private final Map<ContentType, Boolean> linkedTypes = new ConcurrentHashMap<>();
+
+  /**
+   * The watermark of the last change of a content of the linked content types.
+   */
+  private volatile long linkedContentChange;
+
+  /**
+   * Listener which advances the watermark.
+   */
+  private final ContentRepositoryListener listener = new ContentRepositoryListenerBase() {
+    @Override
+    protected void handleContentEvent(ContentEvent event) {
+      long current = watermark.incrementAndGet();
+      if (changes.size() >= MAX_TRACKED_CHANGES) {
+        trackedSince = current;
+        changes.clear();
+      }
+      changes.put(IdHelper.parseContentId(event.getContent().getId()), current);
+      ContentType type = event.getContent().getType();
+      if (type != null && linkedTypes.computeIfAbsent(type, CSVRepositoryWatermark.this::isLinkedContentType)) {
+        linkedContentChange = current;
+      }
+    }
+  };
+
+  /**
+   * Constructor.
+   *
+   * @param contentRepository  the content repository
+   * @param linkedContentTypes the names of the content types whose changes may change the exports of other contents,
+   *                           e.g. taxonomies
+   */
+  public CSVRepositoryWatermark(ContentRepository contentRepository, Collection<String> linkedContentTypes) {
+    this.contentRepository = contentRepository;
+    this.linkedContentTypes = new ArrayList<>(linkedContentTypes);
+    contentRepository.addContentRepositoryListener(listener);
+  }
+
+  /**
+   * Gets the current watermark.
+   *
+   * @return the number of content events received
+   */
+  public long get() {
+    return watermark.get();
+  }
+
+  /**
+   * Determines whether a content may have changed after a watermark.
+   *
+   * @param contentId the numeric ID of the content
+   * @param since     the watermark
+   * @return true if the content has changed after the watermark, or if changes are no longer tracked that far back
+   */
+  public boolean isChangedSince(int contentId, long since) {
+    if (since < trackedSince) {
+      return true;
+    }
+    Long changed = changes.get(contentId);
+    return changed != null && changed > since;
+  }
+
+  /**
+   * Determines whether a content of the linked content types may have changed after a watermark.
+   *
+   * @param since the watermark
+   * @return true if a linked content has changed after the watermark
+   */
+  public boolean isLinkedContentChangedSince(long since) {
+    return linkedContentChange > since;
+  }
+
+  private boolean isLinkedContentType(ContentType type) {
+    for (String linkedContentType : linkedContentTypes) {
+      if (type.isSubtypeOf(linkedContentType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void close() {
+    contentRepository.removeContentRepositoryListener(listener);
+  }
+}
@@ -0,0 +1,318 @@
+package com.coremedia.csv.studio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Caches the CSV files of completed exports on disk. An entry is keyed by the normalized search parameters and the
+ * template, and tagged with the repository watermark from before its search. A repeated export is served from the
+ * cache if its search finds the same contents and none of them has changed since the entry was computed.
+ * The entries are evicted in least recently used order when the number of entries or their total size exceeds the
+ * configured limits.
+ */
+@ManagedResource(description = "Cache of the CSV files of completed exports")
+public class CSVResultCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CSVResultCache.class);
+
+  private final CSVRepositoryWatermark watermark;
+
+  private final Path directory;
+
+  private final int maxEntries;
+
+  private final long maxBytes;
+
+  private final Duration maxAge;
+
+  /**
+   * The entries in least recently used order. Guarded by itself.
+   */
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * The total size of the cached files. Guarded by {@link #entries}.
+   */
+  private long bytes;
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param watermark  the watermark of the repository
+   * @param directory  the directory of the cached files
+   * @param maxEntries the maximum number of cached exports, 0 disables the cache
+   * @param maxBytes   the maximum total size of the cached files
+   * @param maxAge     the time after which cached exports are recomputed, even if their contents have not changed
+   * @throws IOException if the directory cannot be created
+   */
+  public CSVResultCache(CSVRepositoryWatermark watermark, Path directory, int maxEntries, long maxBytes,
+                        Duration maxAge) throws IOException {
+    this.watermark = watermark;
+    this.directory = directory;
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.maxAge = maxAge;
+    // files of a previous run cannot be validated, as the watermark starts over
+    if (Files.isDirectory(directory)) {
+      deleteFiles();
+    }
+    Files.createDirectories(directory);
+  }
+
+  /**
+   * Gets the current watermark, which must be taken before the contents of an export are searched.
+   *
+   * @return the current watermark
+   */
+  public long getWatermark() {
+    return watermark.get();
+  }
+
+  /**
+   * Looks up the cached file of an export.
+   *
+   * @param key       the normalized search parameters and template of the export
+   * @param watermark the watermark taken before the contents of the export have been searched
+   * @param ids       the numeric IDs of the contents of the export, which are read completely
+   * @return the lookup, which provides the cached file on a hit and stores the file of the export on a miss
+   */
+  public Lookup lookup(String key, long watermark, CSVContentIdSource ids) throws IOException {
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+    MessageDigest digest = newDigest();
+    // a changed linked content, e.g. a renamed taxonomy, may change any cached export
+    boolean changed = entry != null && watermark.isLinkedContentChangedSince(entry.watermark);
+    int[] page;
+    while ((page = ids.nextPage()).length > 0) {
+      for (int id : page) {
+        digest.update((byte) (id >>> 24));
+        digest.update((byte) (id >>> 16));
+        digest.update((byte) (id >>> 8));
+        digest.update((byte) id);
+        changed = changed || (entry != null && this.watermark.isChangedSince(id, entry.watermark));
+      }
+    }
+    byte[] idHash = digest.digest();
+    Lookup lookup = new Lookup(key, watermark, idHash);
+    if (entry != null && !changed && Arrays.equals(entry.idHash, idHash)
+            && System.currentTimeMillis() - entry.created < maxAge.toMillis()) {
+      try {
+        // opened before the entry might be evicted, the file remains readable until it is closed
+        lookup.data = Files.newInputStream(entry.file);
+        lookup.contentDispositionHeaderValue = entry.contentDispositionHeaderValue;
+        hits.increment();
+        return lookup;
+      } catch (NoSuchFileException e) {
+        LOG.debug("Cached CSV file {} has been evicted", entry.file);
+      }
+    }
+    misses.increment();
+    return lookup;
+  }
+
+  /**
+   * Creates a temporary file in the cache directory, into which the CSV of a missed export can be written before it
+   * is stored.
+   *
+   * @return the temporary file
+   * @throws IOException if the file cannot be created
+   */
+  public Path createTempFile() throws IOException {
+    return Files.createTempFile(directory, "export-", ".tmp");
+  }
+
+  @ManagedAttribute(description = "Number of exports served from the cache")
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @ManagedAttribute(description = "Number of exports which had to be computed")
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @ManagedAttribute(description = "Ratio of exports served from the cache")
+  public double getHitRate() {
+    long hitCount = hits.sum();
+    long total = hitCount + misses.sum();
+    return total == 0 ? 0 : (double) hitCount / total;
+  }
+
+  @ManagedAttribute(description = "Number of cached exports")
+  public int getSize() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  @ManagedAttribute(description = "Total size of the cached files in bytes")
+  public long getBytes() {
+    synchronized (entries) {
+      return bytes;
+    }
+  }
+
+  @ManagedOperation(description = "Removes all cached exports")
+  public void clear() {
+    List<Entry> removed;
+    synchronized (entries) {
+      removed = new ArrayList<>(entries.values());
+      entries.clear();
+      bytes = 0;
+    }
+    removed.forEach(CSVResultCache::deleteFile);
+  }
+
+  private void store(Lookup lookup, Path file, String contentDispositionHeaderValue) throws IOException {
+    long size = Files.size(file);
+    if (maxEntries <= 0 || size > maxBytes) {
+      Files.deleteIfExists(file);
+      return;
+    }
+    Path cachedFile = createTempFile();
+    Files.move(file, cachedFile, StandardCopyOption.REPLACE_EXISTING);
+    Entry entry = new Entry(cachedFile, size, lookup.watermark, lookup.idHash, contentDispositionHeaderValue);
+    List<Entry> evicted = new ArrayList<>();
+    synchronized (entries) {
+      Entry previous = entries.put(lookup.key, entry);
+      if (previous != null) {
+        bytes -= previous.size;
+        evicted.add(previous);
+      }
+      bytes += size;
+      Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+      while ((entries.size() > maxEntries || bytes > maxBytes) && leastRecentlyUsed.hasNext()) {
+        Entry eldest = leastRecentlyUsed.next();
+        leastRecentlyUsed.remove();
+        bytes -= eldest.size;
+        evicted.add(eldest);
+      }
+    }
+    evicted.forEach(CSVResultCache::deleteFile);
+  }
+
+  private void deleteFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  private static void deleteFile(Entry entry) {
+    try {
+      Files.deleteIfExists(entry.file);
+    } catch (IOException e) {
+      LOG.warn("Failed to delete cached CSV file {}", entry.file, e);
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The result of a lookup.
+   */
+  public class Lookup {
+    private final String key;
+    private final long watermark;
+    private final byte[] idHash;
+    private InputStream data;
+    private String contentDispositionHeaderValue;
+
+    private Lookup(String key, long watermark, byte[] idHash) {
+      this.key = key;
+      this.watermark = watermark;
+      this.idHash = idHash;
+    }
+
+    /**
+     * Whether the export is served from the cache.
+     *
+     * @return true if the cached file is valid
+     */
+    public boolean isHit() {
+      return data != null;
+    }
+
+    /**
+     * Gets the cached file on a hit. The stream must be closed by the caller.
+     *
+     * @return the cached file, or null on a miss
+     */
+    public InputStream getData() {
+      return data;
+    }
+
+    /**
+     * Gets the Content-Disposition header value of the cached file on a hit.
+     *
+     * @return the Content-Disposition header value, or null
+     */
+    public String getContentDispositionHeaderValue() {
+      return contentDispositionHeaderValue;
+    }
+
+    /**
+     * Stores the file of a missed export in the cache. The file is moved into the cache directory.
+     *
+     * @param file                          the complete CSV file of the export
+     * @param contentDispositionHeaderValue the Content-Disposition header value of the file, may be null
+     * @throws IOException if the file cannot be moved
+     */
+    public void store(Path file, String contentDispositionHeaderValue) throws IOException {
+      CSVResultCache.this.store(this, file, contentDispositionHeaderValue);
+    }
+  }
+
+  /**
+   * A cached export.
+   */
+  private static class Entry {
+    private final Path file;
+    private final long size;
+    private final long watermark;
+    private final byte[] idHash;
+    private final String contentDispositionHeaderValue;
+    private final long created = System.currentTimeMillis();
+
+    private Entry(Path file, long size, long watermark, byte[] idHash, String contentDispositionHeaderValue) {
+      this.file = file;
+      this.size = size;
+      this.watermark = watermark;
+      this.idHash = idHash;
+      this.contentDispositionHeaderValue = contentDispositionHeaderValue;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.coremedia.csv.studio;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the preview CAE responds to a CSV request with an error status.
+ */
+public class CSVRetrievalException extends IOException {
+
+  /**
+   * The status code of the HTTP response.
+   */
+  private final int status;
+
+  /**
+   * The number of seconds after which the request may be retried, as sent in the Retry-After header, or -1.
+   */
+  private final long retryAfterSeconds;
+
+  /**
+   * Constructor.
+   *
+   * @param status            The status code of the HTTP response
+   * @param retryAfterSeconds The value of the Retry-After header in seconds, or -1 if the header is missing
+   */
+  public CSVRetrievalException(int status, long retryAfterSeconds) {
+    super("retrieveCSV returned status code " + status);
+    this.status = status;
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  /**
+   * Get the status code of the HTTP response.
+   *
+   * @return The status code of the HTTP response
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * Get the number of seconds after which the request may be retried.
+   *
+   * @return The value of the Retry-After header in seconds, or -1 if the header is missing
+   */
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  /**
+   * Whether the request may succeed when retried, i.e. the preview CAE was overloaded or failed temporarily.
+   *
+   * @return true if the request may be retried
+   */
+  public boolean isRetryable() {
+    return status == 408 || status == 429 || status >= 500;
+  }
+}